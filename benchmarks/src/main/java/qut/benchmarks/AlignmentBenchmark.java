@@ -0,0 +1,90 @@
+package qut.benchmarks;
+
+import jaligner.*;
+import jaligner.matrix.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Smith-Waterman-Gotoh on a reference gene and a gene of a genome, a
+ * homologue or not: the full alignment with its traceback, the score
+ * recomputed from an alignment, the score alone from a query profile, the
+ * threshold test, and a batch of targets scored against one profile.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "--enable-preview", "--add-modules", "jdk.incubator.vector" })
+public class AlignmentBenchmark
+{
+    private static final int BATCH = 64;
+
+    /**
+     * homologue: the target is the reference with a fifth of its residues
+     * changed; random: an unrelated peptide of the same length.
+     */
+    @Param({ "homologue", "random" })
+    public String target;
+
+    private Matrix matrix;
+    private Sequence referenceSequence, targetSequence;
+    private QueryProfile profile;
+    private byte[] targetBytes;
+    private byte[][] batch;
+    private float[] scores;
+    private Alignment alignment;
+
+    @Setup
+    public void Setup()
+    {
+        SyntheticData data = new SyntheticData(23, 1);
+        String reference = data.References().get(0);
+        String other = "homologue".equals(target) ? data.Mutate(reference, 0.2) : data.Peptide(reference.length());
+
+        matrix = BLOSUM62.Load();
+        referenceSequence = new Sequence(reference);
+        targetSequence = new Sequence(other);
+        profile = new QueryProfile(referenceSequence, matrix, 10f, 0.5f);
+        targetBytes = other.getBytes();
+        batch = new byte[BATCH][];
+        for (int i = 0; i < BATCH; i++)
+            batch[i] = ("homologue".equals(target) ? data.Mutate(reference, 0.2) : data.Peptide(reference.length())).getBytes();
+        scores = new float[BATCH];
+        alignment = SmithWatermanGotoh.align(targetSequence, referenceSequence, matrix, 10f, 0.5f);
+    }
+
+    @Benchmark
+    public Alignment Align()
+    {
+        return SmithWatermanGotoh.align(targetSequence, referenceSequence, matrix, 10f, 0.5f);
+    }
+
+    @Benchmark
+    public float CalculateScore()
+    {
+        return alignment.calculateScore();
+    }
+
+    @Benchmark
+    public float ProfileScore()
+    {
+        return SmithWatermanGotoh.score(profile, targetBytes);
+    }
+
+    @Benchmark
+    public boolean AlignsAbove()
+    {
+        return SmithWatermanGotoh.alignsAbove(profile, targetBytes, 60f);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public float[] BatchScore()
+    {
+        SmithWatermanGotoh.score(profile, batch, scores);
+        return scores;
+    }
+}
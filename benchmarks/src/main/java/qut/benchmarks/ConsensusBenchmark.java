@@ -0,0 +1,99 @@
+package qut.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import qut.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adding predicted promoters to the consensus: Sigma70Consensus.addMatch
+ * on one thread, the same behind a lock shared by every thread, as the
+ * runners used to, and a ConsensusAccumulator shared by every thread. Run
+ * with -t to set the threads, 4 by default.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "--enable-preview", "--add-modules", "jdk.incubator.vector" })
+@Threads(4)
+public class ConsensusBenchmark
+{
+    private static final String[] NAMES = { "synA", "synB", "synC", "synD", "synE", "synF", "synG", "synH", "synI" };
+
+    // The promoters found upstream of the genes of a synthetic record
+    @State(Scope.Benchmark)
+    public static class Matches
+    {
+        Sigma70Match[] matches;
+
+        @Setup
+        public void Setup()
+        {
+            String text = new SyntheticData(31, 9).Record("SYN", 150000, 500);
+            GenbankRecord record = new GenbankParser(ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII)), true).Next();
+            Sigma70Scanner scanner = new Sigma70Scanner();
+            List<Sigma70Match> found = new ArrayList<Sigma70Match>();
+            for (Gene gene : record.genes)
+            {
+                Sigma70Match match = scanner.BestMatch(record.nucleotides.UpstreamView(gene));
+                if (match != null)
+                    found.add(match);
+            }
+            matches = found.toArray(new Sigma70Match[0]);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor
+    {
+        int next;
+
+        int Next(int length)
+        {
+            int i = next;
+            next = i + 1 == length ? 0 : i + 1;
+            return i;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Local
+    {
+        final Sigma70Consensus consensus = new Sigma70Consensus();
+    }
+
+    @State(Scope.Benchmark)
+    public static class Shared
+    {
+        final Sigma70Consensus consensus = new Sigma70Consensus();
+        final ConsensusAccumulator accumulator = new ConsensusAccumulator(Arrays.asList(NAMES));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void ConsensusAddMatch(Matches matches, Cursor cursor, Local local)
+    {
+        local.consensus.addMatch(matches.matches[cursor.Next(matches.matches.length)]);
+    }
+
+    @Benchmark
+    public void LockedAddMatch(Matches matches, Cursor cursor, Shared shared)
+    {
+        Sigma70Match match = matches.matches[cursor.Next(matches.matches.length)];
+        synchronized (shared.consensus)
+        {
+            shared.consensus.addMatch(match);
+        }
+    }
+
+    @Benchmark
+    public void AccumulatorAddMatch(Matches matches, Cursor cursor, Shared shared)
+    {
+        int i = cursor.Next(matches.matches.length);
+        shared.accumulator.addMatch(NAMES[i % NAMES.length], matches.matches[i]);
+    }
+}
@@ -0,0 +1,63 @@
+package qut.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import qut.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a synthetic GenBank record held in memory: its CDS features
+ * alone with Gene.ParseGenes, the whole record with GenbankRecord.Parse,
+ * and with GenbankParser, serially and split over the common pool.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "--enable-preview", "--add-modules", "jdk.incubator.vector" })
+public class ParseBenchmark
+{
+    @Param({ "150000", "1500000" })
+    public int bases;
+
+    private String text;
+    private byte[] bytes;
+
+    @Setup
+    public void Setup()
+    {
+        text = new SyntheticData(17, 9).Record("SYN", bases, bases / 600);
+        bytes = text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Benchmark
+    public List<Gene> ParseGenes() throws IOException
+    {
+        return Gene.ParseGenes(new BufferedReader(new StringReader(text)));
+    }
+
+    @Benchmark
+    public GenbankRecord RecordParse() throws IOException
+    {
+        GenbankRecord record = new GenbankRecord();
+        record.Parse(new BufferedReader(new StringReader(text)));
+        return record;
+    }
+
+    @Benchmark
+    public GenbankRecord ParserNext()
+    {
+        return new GenbankParser(ByteBuffer.wrap(bytes), true).Next();
+    }
+
+    @Benchmark
+    public GenbankRecord ParserNextParallel()
+    {
+        return new GenbankParser(ByteBuffer.wrap(bytes), true).NextParallel();
+    }
+}
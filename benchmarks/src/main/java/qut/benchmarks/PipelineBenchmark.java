@@ -0,0 +1,103 @@
+package qut.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import qut.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The whole pipeline over synthetic GenBank files: Threaded runs each
+ * strategy that takes a thread count at each count (-p threadedStrategy,
+ * -p threads), and Unthreaded runs sequential, virtual and perfile, which
+ * take none, once each (-p unthreadedStrategy). The GenBank and homology
+ * caches are off, and so is interning, whose pool would otherwise still
+ * hold the previous invocation's translations, so every run parses and
+ * aligns everything. -p genomeScan=true indexes each genome's promoters as
+ * -Dqut.promoters=genome does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "--enable-preview", "--add-modules", "jdk.incubator.vector",
+        "-Dqut.cache=off", "-Dqut.homology.cache=off", "-Dqut.intern=off" })
+public class PipelineBenchmark
+{
+    // The synthetic files, written once a trial
+    @State(Scope.Benchmark)
+    public static class Genomes
+    {
+        @Param({ "4" })
+        public int files;
+
+        @Param({ "false" })
+        public boolean genomeScan;
+
+        private Path dir;
+        private List<ReferenceGene> referenceGenes;
+        private PrintStream out;
+
+        @Setup(Level.Trial)
+        public void Setup() throws IOException
+        {
+            dir = Files.createTempDirectory("promoter-benchmark");
+            new SyntheticData(7, 9).Write(dir, files, 150000, 250);
+            referenceGenes = PromoterPipeline.ParseReferenceGenes(dir.resolve("referenceGenes.list").toString());
+            if (genomeScan)
+                System.setProperty("qut.promoters", "genome");
+            out = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream())); // the file names the strategies print
+        }
+
+        HashMap<String, Sigma70Consensus> Run(ExecutionStrategy strategy) throws IOException, InterruptedException
+        {
+            try (PromoterPipeline pipeline = new PromoterPipeline(referenceGenes))
+            {
+                return pipeline.Run(dir.resolve("Ecoli").toString(), strategy);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void TearDown() throws IOException
+        {
+            System.setOut(out);
+            try (var paths = Files.walk(dir))
+            {
+                for (Path path : paths.sorted(Comparator.reverseOrder()).toList())
+                    Files.delete(path);
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Threaded
+    {
+        @Param({ "forkjoin", "fixed", "structured", "pipelined" })
+        public String threadedStrategy;
+
+        @Param({ "1", "2", "4", "8" })
+        public int threads;
+    }
+
+    @State(Scope.Benchmark)
+    public static class Unthreaded
+    {
+        @Param({ "sequential", "virtual", "perfile" })
+        public String unthreadedStrategy;
+    }
+
+    @Benchmark
+    public HashMap<String, Sigma70Consensus> Threaded(Genomes genomes, Threaded threaded) throws IOException, InterruptedException
+    {
+        return genomes.Run(ExecutionStrategy.Named(threaded.threadedStrategy, threaded.threads));
+    }
+
+    @Benchmark
+    public HashMap<String, Sigma70Consensus> Unthreaded(Genomes genomes, Unthreaded unthreaded) throws IOException, InterruptedException
+    {
+        return genomes.Run(ExecutionStrategy.Named(unthreaded.unthreadedStrategy, 1));
+    }
+}
@@ -0,0 +1,74 @@
+package qut.benchmarks;
+
+import edu.au.jacobi.pattern.*;
+import org.openjdk.jmh.annotations.*;
+import qut.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finding the best promoter upstream of a gene, cycling through the genes
+ * of a synthetic record: with jacobi's BioPatterns.getBestMatch on the
+ * upstream region as a string, with a Sigma70Scanner on a view of it, and
+ * by lookup in a PromoterIndex of the whole genome, built once.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "--enable-preview", "--add-modules", "jdk.incubator.vector" })
+public class PromoterBenchmark
+{
+    private Series series;
+    private Sigma70Scanner scanner;
+    private PromoterIndex index;
+    private NucleotideView[] regions;
+    private String[] regionStrings;
+    private int next;
+
+    @Setup
+    public void Setup()
+    {
+        String text = new SyntheticData(29, 9).Record("SYN", 150000, 500);
+        GenbankRecord record = new GenbankParser(ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII)), true).Next();
+        series = Sigma70Definition.getSeriesAll_Unanchored(0.7);
+        scanner = new Sigma70Scanner();
+        index = new PromoterIndex(record.nucleotides);
+        regions = new NucleotideView[record.genes.size()];
+        regionStrings = new String[regions.length];
+        for (int i = 0; i < regions.length; i++)
+        {
+            regions[i] = record.nucleotides.UpstreamView(record.genes.get(i));
+            regionStrings[i] = regions[i].toString();
+        }
+    }
+
+    private int Next()
+    {
+        int i = next;
+        next = i + 1 == regions.length ? 0 : i + 1;
+        return i;
+    }
+
+    @Benchmark
+    public Match BioPatternsBestMatch()
+    {
+        return BioPatterns.getBestMatch(series, regionStrings[Next()]);
+    }
+
+    @Benchmark
+    public Sigma70Match ScannerBestMatch()
+    {
+        return scanner.BestMatch(regions[Next()]);
+    }
+
+    @Benchmark
+    public Sigma70Match IndexBestMatch()
+    {
+        return index.BestMatch(regions[Next()]);
+    }
+}
@@ -0,0 +1,160 @@
+package qut.benchmarks;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Reference genes and GenBank files made up from a seed, so that the
+ * benchmarks run anywhere, without the Ecoli directory. A file is one
+ * record of random bases and CDSs. About a third of the CDSs translate to a
+ * reference gene with some of its residues changed, from a few to most of
+ * them, so some align above the threshold and some do not. The rest are
+ * random peptides. A -35 and a -10 box, with some bases changed, is planted
+ * upstream of each forward gene, where the promoter search looks.
+ */
+public class SyntheticData
+{
+    private static final String ACIDS = "ACDEFGHIKLMNPQRSTVWY";
+    private static final String BASES = "acgt";
+    private static final double[] MUTATION_RATES = { 0.05, 0.2, 0.4, 0.6, 0.8 };
+
+    private final Random random;
+    private final List<String> names = new ArrayList<String>();
+    private final List<String> references = new ArrayList<String>();
+
+    /**
+     * @param references the number of reference genes to make
+     */
+    public SyntheticData(long seed, int references)
+    {
+        random = new Random(seed);
+        for (int i = 0; i < references; i++)
+        {
+            names.add("syn" + (char) ('A' + i % 26) + (i / 26 == 0 ? "" : Integer.toString(i / 26)));
+            this.references.add(Peptide(200 + random.nextInt(400)));
+        }
+    }
+
+    public List<String> Names()
+    {
+        return names;
+    }
+
+    public List<String> References()
+    {
+        return references;
+    }
+
+    /**
+     * A random peptide.
+     */
+    public String Peptide(int length)
+    {
+        char[] peptide = new char[length];
+        for (int i = 0; i < length; i++)
+            peptide[i] = ACIDS.charAt(random.nextInt(ACIDS.length()));
+        return new String(peptide);
+    }
+
+    /**
+     * A peptide with about rate of its residues substituted, deleted or
+     * followed by an inserted one.
+     */
+    public String Mutate(String peptide, double rate)
+    {
+        StringBuilder mutant = new StringBuilder(peptide.length() + 16);
+        for (int i = 0; i < peptide.length(); i++)
+        {
+            double x = random.nextDouble();
+            if (x < rate)
+                mutant.append(ACIDS.charAt(random.nextInt(ACIDS.length())));
+            else if (x < rate * 1.1)
+                continue;
+            else if (x < rate * 1.2)
+                mutant.append(peptide.charAt(i)).append(ACIDS.charAt(random.nextInt(ACIDS.length())));
+            else
+                mutant.append(peptide.charAt(i));
+        }
+        return mutant.toString();
+    }
+
+    /**
+     * The text of a GenBank record of the given number of bases and CDSs.
+     */
+    public String Record(String name, int length, int genes)
+    {
+        char[] dna = new char[length];
+        for (int i = 0; i < length; i++)
+            dna[i] = BASES.charAt(random.nextInt(4));
+
+        StringBuilder text = new StringBuilder(length * 2);
+        text.append(String.format("LOCUS       %s  %d bp    DNA     circular BCT 01-JAN-2020\n", name, length));
+        text.append("DEFINITION  synthetic.\n");
+        text.append("FEATURES             Location/Qualifiers\n");
+        text.append("     source          1..").append(length).append('\n');
+        text.append("                     /organism=\"Synthetic\"\n");
+        for (int k = 0; k < genes; k++)
+        {
+            int location = 1 + random.nextInt(Math.max(1, length - 2000));
+            boolean forward = random.nextBoolean();
+            String translation = random.nextDouble() < 0.35
+                    ? Mutate(references.get(random.nextInt(references.size())), MUTATION_RATES[random.nextInt(MUTATION_RATES.length)])
+                    : Peptide(30 + random.nextInt(470));
+            if (forward)
+                Plant(dna, location - 1 - (30 + random.nextInt(170)));
+
+            String span = location + ".." + (location + 100 + random.nextInt(1400));
+            if (!forward)
+                span = "complement(" + span + ")";
+            text.append("     gene            ").append(span).append('\n');
+            text.append("                     /gene=\"g").append(k).append("\"\n");
+            text.append("     CDS             ").append(span).append('\n');
+            text.append("                     /gene=\"g").append(k).append("\"\n");
+            text.append("                     /codon_start=1\n");
+            text.append("                     /db_xref=\"GeneID:").append(1000 + k).append("\"\n");
+            String qualifier = "/translation=\"" + translation + "\"";
+            for (int at = 0; at < qualifier.length(); at += 58)
+                text.append("                     ").append(qualifier, at, Math.min(qualifier.length(), at + 58)).append('\n');
+        }
+        text.append("ORIGIN      \n");
+        for (int i = 0; i < length; i += 60)
+        {
+            text.append(String.format("%9d", i + 1));
+            for (int j = i; j < Math.min(length, i + 60); j += 10)
+                text.append(' ').append(dna, j, Math.min(length, j + 10) - j);
+            text.append('\n');
+        }
+        text.append("//\n");
+        return text.toString();
+    }
+
+    /**
+     * Writes the reference genes to dir/referenceGenes.list and the given
+     * number of GenBank files to dir/Ecoli, as the runners expect them.
+     */
+    public void Write(Path dir, int files, int length, int genes) throws IOException
+    {
+        StringBuilder list = new StringBuilder();
+        for (int i = 0; i < references.size(); i++)
+            list.append(names.get(i)).append('\n').append(references.get(i)).append('\n');
+        Files.createDirectories(dir.resolve("Ecoli"));
+        Files.writeString(dir.resolve("referenceGenes.list"), list, StandardCharsets.US_ASCII);
+        for (int f = 0; f < files; f++)
+            Files.writeString(dir.resolve("Ecoli").resolve("synthetic" + f + ".gbk"),
+                    Record("SYN" + f, length, genes), StandardCharsets.US_ASCII);
+    }
+
+    // A consensus -35 and -10 box, a spacer apart, with about a third of the bases changed
+    private void Plant(char[] dna, int at)
+    {
+        StringBuilder promoter = new StringBuilder("ttgaca");
+        for (int i = 15 + random.nextInt(5); i > 0; i--)
+            promoter.append(BASES.charAt(random.nextInt(4)));
+        promoter.append("tataat");
+        for (int i = 0; i < promoter.length(); i++)
+            if (at + i >= 0 && at + i < dna.length)
+                dna[at + i] = random.nextDouble() < 0.35 ? BASES.charAt(random.nextInt(4)) : promoter.charAt(i);
+    }
+}
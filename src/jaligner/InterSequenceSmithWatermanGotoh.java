@@ -0,0 +1,524 @@
+package jaligner;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.Arrays;
+
+/**
+ * Score-only Smith-Waterman-Gotoh of one query against many targets, with
+ * each vector lane working on a different target (Rognes, BMC
+ * Bioinformatics 12:221, 2011). When a lane reaches the end of its target
+ * it is reset and handed the next one, so lanes stay busy whatever the
+ * target lengths.
+ * <p>
+ * At every step each lane takes one residue of its target, and a score
+ * profile is built for the step: for every residue code, the vector of its
+ * scores against the residue under each lane. When the alphabet fits in a
+ * vector, each of those is one shuffle of a row of the query's
+ * code-by-code scores; otherwise it is copied lane by lane. The recurrence
+ * then runs down the query reading one profile vector per position, with
+ * no gap carried across lanes.
+ * <p>
+ * Scores are kept in 8-bit lanes after the same integer scaling as
+ * {@link StripedSmithWatermanGotoh}. A target whose score gets close
+ * enough to the lane maximum that a cell could wrap leaves its lane at
+ * once, and the targets that left are rescored together in 16-bit lanes
+ * when there are enough of them to fill half, or else one at a time. Results are identical to
+ * {@link SmithWatermanGotoh#score(QueryProfile, byte[])}.
+ * <p>
+ * Needs <code>--add-modules jdk.incubator.vector</code> at compile and run
+ * time.
+ */
+
+public class InterSequenceSmithWatermanGotoh {
+	private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+
+	private static final VectorSpecies<Short> SHORTS = ShortVector.SPECIES_PREFERRED;
+
+	/**
+	 * Per-thread working storage, grown on demand and reused across calls
+	 */
+	private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal
+			.withInitial(Scratch::new);
+
+	/**
+	 * Hidden constructor
+	 */
+	private InterSequenceSmithWatermanGotoh() {
+		super();
+	}
+
+	/**
+	 * Tells whether interleaving targets beats striping the query. Building
+	 * the score profile again at every step is what this engine pays for
+	 * never carrying gaps across lanes, and it only pays off with 512-bit
+	 * vectors, where the lanes are many and a byte shuffle crosses all of
+	 * them in one instruction: 9 reference genes against 256 targets took
+	 * 42 ms here and 54 ms striped, but with 256-bit vectors 62 ms against
+	 * 55 ms. So on AVX2 hardware the engine is not used unless
+	 * <code>-Djaligner.intersequence=true</code> forces it, which is how
+	 * it is exercised there; <code>false</code> turns it off everywhere.
+	 *
+	 * @param query
+	 *            compiled query ({@link QueryProfile})
+	 * @return true if {@link #score(QueryProfile, byte[][], float[])} should
+	 *         be used for this query
+	 */
+	public static boolean preferred(QueryProfile query) {
+		String mode = System.getProperty("jaligner.intersequence");
+		boolean wanted = mode == null ? BYTES.vectorBitSize() >= 512
+				: Boolean.parseBoolean(mode);
+		return wanted && query.scale > 0 && query.length() > 0
+				&& query.scaledScores.length <= BYTES.length();
+	}
+
+	/**
+	 * Scores every target against the query.
+	 *
+	 * @param query
+	 *            compiled query ({@link QueryProfile})
+	 * @param targets
+	 *            residues of the target sequences
+	 * @param scores
+	 *            receives the score of each target, at the same index
+	 */
+	public static void score(QueryProfile query, byte[][] targets,
+			float[] scores) {
+		if (query.scale == 0 || query.length() == 0) {
+			for (int t = 0; t < targets.length; t++) {
+				scores[t] = SmithWatermanGotoh.score(query, targets[t]);
+			}
+			return;
+		}
+
+		Scratch scratch = SCRATCH.get();
+		int[] pending = scratch.pending(targets.length);
+		int count = 0;
+		for (int t = 0; t < targets.length; t++) {
+			if (targets[t].length == 0) {
+				scores[t] = 0;
+			} else {
+				pending[count++] = t;
+			}
+		}
+		int o = query.gapOpen();
+		int e = query.gapExtend();
+		if (count > 0 && o + e <= -Byte.MIN_VALUE
+				&& query.maxScore < Byte.MAX_VALUE) {
+			count = scoreBytes(query, targets, pending, count, scores, scratch);
+		}
+		// A few targets would leave most 16-bit lanes idle for as long as
+		// the longest of them, so those are scored one by one
+		if (count >= SHORTS.length() / 2 && o + e <= -Short.MIN_VALUE
+				&& query.maxScore < Short.MAX_VALUE) {
+			count = scoreShorts(query, targets, pending, count, scores, scratch);
+		}
+		for (int i = 0; i < count; i++) {
+			scores[pending[i]] = SmithWatermanGotoh.score(query,
+					targets[pending[i]]);
+		}
+	}
+
+	/**
+	 * Runs the recurrence in 8-bit lanes over the targets listed in
+	 * <code>pending[0..count)</code>, storing the score of each that fits.
+	 *
+	 * @return the number of targets that might not fit, now listed at the
+	 *         start of pending
+	 */
+	private static int scoreBytes(QueryProfile query, byte[][] targets,
+			int[] pending, int count, float[] scores, Scratch scratch) {
+		int n = query.length();
+		int alphabet = query.scaledScores.length;
+		int lanes = BYTES.length();
+		int limit = Byte.MAX_VALUE - query.maxScore;
+		boolean shuffled = alphabet <= lanes;
+		int stride = shuffled ? lanes : alphabet;
+
+		scratch.ensureBytes(n * lanes, alphabet * Math.max(lanes, alphabet), lanes);
+		byte[] v = scratch.byteV;
+		byte[] g = scratch.byteG;
+		byte[] matrix = scratch.byteMatrix;
+		byte[] profile = scratch.byteProfile;
+		int[] target = scratch.target; // target of each lane, -1 when idle
+		int[] position = scratch.position; // next residue of each lane
+		int[] codes = scratch.codes;
+		boolean[] reset = scratch.reset;
+		byte[] residues = query.residues;
+		int[][] scaled = query.scaledScores;
+
+		Arrays.fill(v, 0, n * lanes, (byte) 0);
+		Arrays.fill(g, 0, n * lanes, (byte) 0);
+		Arrays.fill(target, 0, lanes, -1);
+		// row q, column a: the score of code a against code q
+		Arrays.fill(matrix, 0, alphabet * stride, (byte) 0);
+		for (int q = 0; q < alphabet; q++) {
+			for (int a = 0; a < alphabet; a++) {
+				matrix[q * stride + a] = (byte) Math.max(scaled[a][q], Byte.MIN_VALUE);
+			}
+		}
+
+		ByteVector zero = ByteVector.zero(BYTES);
+		ByteVector gapOpen = ByteVector.broadcast(BYTES, (byte) query.gapOpen());
+		ByteVector gapExtend = ByteVector.broadcast(BYTES, (byte) query.gapExtend());
+		ByteVector max = zero;
+
+		int next = 0;
+		int busy = 0;
+		int overflowed = 0;
+		while (true) {
+			// Retire finished targets and hand out new ones
+			boolean anyReset = false;
+			for (int lane = 0; lane < lanes; lane++) {
+				reset[lane] = false;
+				int t = target[lane];
+				if (t >= 0 && position[lane] < targets[t].length) {
+					continue;
+				}
+				if (t >= 0) {
+					scores[t] = (float) max.lane(lane) / query.scale;
+					target[lane] = -1;
+					busy--;
+				}
+				if (next < count) {
+					target[lane] = pending[next++];
+					position[lane] = 0;
+					busy++;
+					reset[lane] = anyReset = true;
+				}
+			}
+			if (busy == 0) {
+				break;
+			}
+			if (anyReset) {
+				for (int lane = 0; lane < lanes; lane++) {
+					if (reset[lane]) {
+						for (int k = lane; k < n * lanes; k += lanes) {
+							v[k] = g[k] = 0;
+						}
+					}
+				}
+				max = max.blend(zero, VectorMask.fromArray(BYTES, reset, 0));
+			}
+
+			// The score of every residue code against the residue under each lane
+			for (int lane = 0; lane < lanes; lane++) {
+				int t = target[lane];
+				codes[lane] = t >= 0 ? query.code(targets[t][position[lane]++] & 0xFF) : 0;
+			}
+			profile(matrix, codes, alphabet, shuffled, profile, scratch.lookup);
+
+			max = column(residues, profile, v, g, gapOpen, gapExtend, max);
+
+			// A lane close enough to the maximum that its next step could
+			// wrap leaves for the wider lanes
+			VectorMask<Byte> full = max.compare(VectorOperators.GE, (byte) limit);
+			if (full.anyTrue()) {
+				for (int lane = 0; lane < lanes; lane++) {
+					if (full.laneIsSet(lane)) {
+						pending[overflowed++] = target[lane];
+						target[lane] = -1;
+						busy--;
+						for (int k = lane; k < n * lanes; k += lanes) {
+							v[k] = g[k] = 0;
+						}
+					}
+				}
+				max = max.blend(zero, full);
+			}
+		}
+		return overflowed;
+	}
+
+	/**
+	 * Runs the recurrence in 16-bit lanes over the targets listed in
+	 * <code>pending[0..count)</code>, storing the score of each that fits.
+	 *
+	 * @return the number of targets that might not fit, now listed at the
+	 *         start of pending
+	 */
+	private static int scoreShorts(QueryProfile query, byte[][] targets,
+			int[] pending, int count, float[] scores, Scratch scratch) {
+		int n = query.length();
+		int alphabet = query.scaledScores.length;
+		int lanes = SHORTS.length();
+		int limit = Short.MAX_VALUE - query.maxScore;
+		boolean shuffled = alphabet <= lanes;
+		int stride = shuffled ? lanes : alphabet;
+
+		scratch.ensureShorts(n * lanes, alphabet * Math.max(lanes, alphabet), lanes);
+		short[] v = scratch.shortV;
+		short[] g = scratch.shortG;
+		short[] matrix = scratch.shortMatrix;
+		short[] profile = scratch.shortProfile;
+		int[] target = scratch.target;
+		int[] position = scratch.position;
+		int[] codes = scratch.codes;
+		boolean[] reset = scratch.reset;
+		byte[] residues = query.residues;
+		int[][] scaled = query.scaledScores;
+
+		Arrays.fill(v, 0, n * lanes, (short) 0);
+		Arrays.fill(g, 0, n * lanes, (short) 0);
+		Arrays.fill(target, 0, lanes, -1);
+		Arrays.fill(matrix, 0, alphabet * stride, (short) 0);
+		for (int q = 0; q < alphabet; q++) {
+			for (int a = 0; a < alphabet; a++) {
+				matrix[q * stride + a] = (short) Math.max(scaled[a][q], Short.MIN_VALUE);
+			}
+		}
+
+		ShortVector zero = ShortVector.zero(SHORTS);
+		ShortVector gapOpen = ShortVector.broadcast(SHORTS, (short) query.gapOpen());
+		ShortVector gapExtend = ShortVector.broadcast(SHORTS, (short) query.gapExtend());
+		ShortVector max = zero;
+
+		int next = 0;
+		int busy = 0;
+		int overflowed = 0;
+		while (true) {
+			boolean anyReset = false;
+			for (int lane = 0; lane < lanes; lane++) {
+				reset[lane] = false;
+				int t = target[lane];
+				if (t >= 0 && position[lane] < targets[t].length) {
+					continue;
+				}
+				if (t >= 0) {
+					scores[t] = (float) max.lane(lane) / query.scale;
+					target[lane] = -1;
+					busy--;
+				}
+				if (next < count) {
+					target[lane] = pending[next++];
+					position[lane] = 0;
+					busy++;
+					reset[lane] = anyReset = true;
+				}
+			}
+			if (busy == 0) {
+				break;
+			}
+			if (anyReset) {
+				for (int lane = 0; lane < lanes; lane++) {
+					if (reset[lane]) {
+						for (int k = lane; k < n * lanes; k += lanes) {
+							v[k] = g[k] = 0;
+						}
+					}
+				}
+				max = max.blend(zero, VectorMask.fromArray(SHORTS, reset, 0));
+			}
+
+			for (int lane = 0; lane < lanes; lane++) {
+				int t = target[lane];
+				codes[lane] = t >= 0 ? query.code(targets[t][position[lane]++] & 0xFF) : 0;
+			}
+			profile(matrix, codes, alphabet, shuffled, profile);
+
+			max = column(residues, profile, v, g, gapOpen, gapExtend, max);
+
+			VectorMask<Short> full = max.compare(VectorOperators.GE, (short) limit);
+			if (full.anyTrue()) {
+				for (int lane = 0; lane < lanes; lane++) {
+					if (full.laneIsSet(lane)) {
+						pending[overflowed++] = target[lane];
+						target[lane] = -1;
+						busy--;
+						for (int k = lane; k < n * lanes; k += lanes) {
+							v[k] = g[k] = 0;
+						}
+					}
+				}
+				max = max.blend(zero, full);
+			}
+		}
+		return overflowed;
+	}
+
+	/**
+	 * Builds the score profile of a step: row q holds, in each lane, the
+	 * score of code q against the code of the residue under that lane.
+	 */
+	private static void profile(byte[] matrix, int[] codes, int alphabet,
+			boolean shuffled, byte[] profile, byte[] lookup) {
+		int lanes = BYTES.length();
+		if (shuffled) {
+			// Loaded as a vector, the codes turn into a shuffle in a few
+			// instructions, where fromArray would copy them one by one
+			for (int lane = 0; lane < lanes; lane++) {
+				lookup[lane] = (byte) codes[lane];
+			}
+			VectorShuffle<Byte> shuffle = ByteVector.fromArray(BYTES, lookup, 0).toShuffle();
+			for (int q = 0; q < alphabet; q++) {
+				ByteVector.fromArray(BYTES, matrix, q * lanes)
+						.rearrange(shuffle).intoArray(profile, q * lanes);
+			}
+		} else {
+			for (int q = 0; q < alphabet; q++) {
+				for (int lane = 0; lane < lanes; lane++) {
+					profile[q * lanes + lane] = matrix[q * alphabet + codes[lane]];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs one step down the query, leaving the new column in v and g.
+	 *
+	 * @return the running maximum of each lane
+	 */
+	private static ByteVector column(byte[] residues, byte[] profile, byte[] v,
+			byte[] g, ByteVector gapOpen, ByteVector gapExtend, ByteVector max) {
+		int lanes = BYTES.length();
+		ByteVector zero = ByteVector.zero(BYTES);
+		ByteVector vDiagonal = zero;
+		ByteVector vF = zero;
+		ByteVector vH = zero;
+		for (int j = 0, k = 0; j < residues.length; j++, k += lanes) {
+			ByteVector vE = ByteVector.fromArray(BYTES, v, k);
+			ByteVector vG = ByteVector.fromArray(BYTES, g, k);
+
+			vG = vG.sub(gapExtend).max(vE.sub(gapOpen));
+			vF = vF.sub(gapExtend).max(vH.sub(gapOpen));
+			vH = vDiagonal.add(ByteVector.fromArray(BYTES, profile, residues[j] * lanes));
+			vH = vH.max(vG).max(vF).max(zero);
+			max = max.max(vH);
+
+			vDiagonal = vE;
+			vH.intoArray(v, k);
+			vG.intoArray(g, k);
+		}
+		return max;
+	}
+
+	/**
+	 * Builds the score profile of a step: row q holds, in each lane, the
+	 * score of code q against the code of the residue under that lane.
+	 */
+	private static void profile(short[] matrix, int[] codes, int alphabet,
+			boolean shuffled, short[] profile) {
+		int lanes = SHORTS.length();
+		if (shuffled) {
+			VectorShuffle<Short> shuffle = VectorShuffle.fromArray(SHORTS, codes, 0);
+			for (int q = 0; q < alphabet; q++) {
+				ShortVector.fromArray(SHORTS, matrix, q * lanes)
+						.rearrange(shuffle).intoArray(profile, q * lanes);
+			}
+		} else {
+			for (int q = 0; q < alphabet; q++) {
+				for (int lane = 0; lane < lanes; lane++) {
+					profile[q * lanes + lane] = matrix[q * alphabet + codes[lane]];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs one step down the query, leaving the new column in v and g.
+	 *
+	 * @return the running maximum of each lane
+	 */
+	private static ShortVector column(byte[] residues, short[] profile, short[] v,
+			short[] g, ShortVector gapOpen, ShortVector gapExtend, ShortVector max) {
+		int lanes = SHORTS.length();
+		ShortVector zero = ShortVector.zero(SHORTS);
+		ShortVector vDiagonal = zero;
+		ShortVector vF = zero;
+		ShortVector vH = zero;
+		for (int j = 0, k = 0; j < residues.length; j++, k += lanes) {
+			ShortVector vE = ShortVector.fromArray(SHORTS, v, k);
+			ShortVector vG = ShortVector.fromArray(SHORTS, g, k);
+
+			vG = vG.sub(gapExtend).max(vE.sub(gapOpen));
+			vF = vF.sub(gapExtend).max(vH.sub(gapOpen));
+			vH = vDiagonal.add(ShortVector.fromArray(SHORTS, profile, residues[j] * lanes));
+			vH = vH.max(vG).max(vF).max(zero);
+			max = max.max(vH);
+
+			vDiagonal = vE;
+			vH.intoArray(v, k);
+			vG.intoArray(g, k);
+		}
+		return max;
+	}
+
+	/**
+	 * Working storage of one thread
+	 */
+	private static class Scratch {
+		byte[] byteV = new byte[0];
+
+		byte[] byteG = new byte[0];
+
+		byte[] byteMatrix = new byte[0];
+
+		byte[] byteProfile = new byte[0];
+
+		short[] shortV = new short[0];
+
+		short[] shortG = new short[0];
+
+		short[] shortMatrix = new short[0];
+
+		short[] shortProfile = new short[0];
+
+		int[] target = new int[0];
+
+		int[] position = new int[0];
+
+		int[] codes = new int[0];
+
+		byte[] lookup = new byte[0];
+
+		boolean[] reset = new boolean[0];
+
+		int[] pending = new int[0];
+
+		int[] pending(int targets) {
+			if (pending.length < targets) {
+				pending = new int[targets];
+			}
+			return pending;
+		}
+
+		void ensureBytes(int cells, int entries, int lanes) {
+			if (byteV.length < cells) {
+				byteV = new byte[cells];
+				byteG = new byte[cells];
+			}
+			if (byteMatrix.length < entries) {
+				byteMatrix = new byte[entries];
+				byteProfile = new byte[entries];
+			}
+			ensureLanes(lanes);
+		}
+
+		void ensureShorts(int cells, int entries, int lanes) {
+			if (shortV.length < cells) {
+				shortV = new short[cells];
+				shortG = new short[cells];
+			}
+			if (shortMatrix.length < entries) {
+				shortMatrix = new short[entries];
+				shortProfile = new short[entries];
+			}
+			ensureLanes(lanes);
+		}
+
+		private void ensureLanes(int lanes) {
+			if (target.length < lanes) {
+				target = new int[lanes];
+				position = new int[lanes];
+				codes = new int[lanes];
+				lookup = new byte[lanes];
+				reset = new boolean[lanes];
+			}
+		}
+	}
+}
@@ -0,0 +1,258 @@
+package jaligner;
+
+import jaligner.matrix.Matrix;
+
+/**
+ * A sequence compiled once for scoring against many others: its residues
+ * encoded as small codes and, for every residue code, the row of scores
+ * against each position of the sequence. The score-only engines read these
+ * rows directly instead of looking up <code>scores[a1[i]][a2[j]]</code>.
+ * <p>
+ * A profile is immutable and can be shared between threads.
+ */
+
+public final class QueryProfile {
+	/**
+	 * Residue code of every character the matrix has scores for; 0 stands
+	 * for characters it does not know, which score 0 against everything
+	 */
+	final byte[] codes;
+
+	/**
+	 * Encoded query
+	 */
+	final byte[] residues;
+
+	/**
+	 * Score rows: <code>rows[code][j]</code> is the score of a residue with
+	 * that code against query position j
+	 */
+	final float[][] rows;
+
+	/**
+	 * Best score of each residue code against any query position, at least 0
+	 */
+	final float[] bestScores;
+
+	/**
+	 * Open gap penalty
+	 */
+	final float open;
+
+	/**
+	 * Extend gap penalty
+	 */
+	final float extend;
+
+	/**
+	 * Factor that makes all scores and penalties integers, 0 if none does
+	 */
+	final int scale;
+
+	/**
+	 * Scaled scores by residue code, target code first; all 0 when
+	 * {@link #scale} is 0
+	 */
+	final int[][] scaledScores;
+
+	/**
+	 * Scaled score rows, laid out like {@link #rows}; all 0 when
+	 * {@link #scale} is 0
+	 */
+	final int[][] scaledRows;
+
+	/**
+	 * Highest scaled score in the profile
+	 */
+	final int maxScore;
+
+	/**
+	 * Striped rows in 8-bit lanes, or null when they are not used
+	 */
+	final byte[][] stripedBytes;
+
+	/**
+	 * Striped rows in 16-bit lanes, or null when they are not used
+	 */
+	final short[][] stripedShorts;
+
+	/**
+	 * Hash of the query, the matrix and the gap penalties
+	 */
+	private final long fingerprint;
+
+	/**
+	 * Largest factor tried when turning the scores into integers
+	 */
+	private static final int MAX_SCALE = 8;
+
+	/**
+	 * Compiles a query sequence.
+	 *
+	 * @param query
+	 *            the sequence to profile ({@link Sequence})
+	 * @param matrix
+	 *            scoring matrix ({@link Matrix})
+	 * @param o
+	 *            open gap penalty
+	 * @param e
+	 *            extend gap penalty
+	 */
+	public QueryProfile(Sequence query, Matrix matrix, float o, float e) {
+		float[][] scores = matrix.getScores();
+		char[] a = query.toArray();
+
+		// Residue codes, with a representative character for each
+		codes = new byte[scores.length];
+		char[] alphabet = new char[scores.length + 1];
+		int size = 1;
+		for (char c = 0; c < scores.length; c++) {
+			for (int k = 0; k < scores.length; k++) {
+				if (scores[c][k] != 0 || scores[k][c] != 0) {
+					if (size > Byte.MAX_VALUE) {
+						throw new IllegalArgumentException(
+								"Too many residues in matrix " + matrix.getId());
+					}
+					alphabet[size] = c;
+					codes[c] = (byte) size++;
+					break;
+				}
+			}
+		}
+
+		residues = new byte[a.length];
+		for (int j = 0; j < a.length; j++) {
+			residues[j] = code(a[j]);
+		}
+
+		rows = new float[size][a.length];
+		for (int code = 1; code < size; code++) {
+			float[] row = scores[alphabet[code]];
+			for (int j = 0; j < a.length; j++) {
+				rows[code][j] = a[j] < row.length ? row[a[j]] : 0;
+			}
+		}
+
+		bestScores = new float[size];
+		for (int code = 0; code < size; code++) {
+			for (int j = 0; j < a.length; j++) {
+				bestScores[code] = Math.max(bestScores[code], rows[code][j]);
+			}
+		}
+
+		open = o;
+		extend = e;
+
+		int scale = Math.max(scale(o), scale(e));
+		for (float[] row : rows) {
+			for (float score : row) {
+				scale = Math.max(scale, scale(score));
+			}
+		}
+		this.scale = scale > MAX_SCALE ? 0 : scale;
+
+		scaledScores = new int[size][size];
+		for (int c1 = 1; c1 < size; c1++) {
+			for (int c2 = 1; c2 < size; c2++) {
+				scaledScores[c1][c2] = (int) (scores[alphabet[c1]][alphabet[c2]] * this.scale);
+			}
+		}
+
+		scaledRows = new int[size][a.length];
+		int maxScore = 0;
+		for (int code = 0; code < size; code++) {
+			for (int j = 0; j < a.length; j++) {
+				scaledRows[code][j] = (int) (rows[code][j] * this.scale);
+				maxScore = Math.max(maxScore, scaledRows[code][j]);
+			}
+		}
+		this.maxScore = maxScore;
+
+		if (SmithWatermanGotoh.VECTOR && this.scale > 0 && a.length > 0) {
+			stripedBytes = StripedSmithWatermanGotoh.stripeBytes(scaledRows,
+					gapOpen(), gapExtend(), this.maxScore);
+			stripedShorts = StripedSmithWatermanGotoh.stripeShorts(scaledRows,
+					gapOpen(), gapExtend(), this.maxScore);
+		} else {
+			stripedBytes = null;
+			stripedShorts = null;
+		}
+
+		long hash = mix(Float.floatToIntBits(o)) ^ mix(~(long) Float.floatToIntBits(e));
+		for (float[] row : scores) {
+			for (float score : row) {
+				hash = mix(hash ^ Float.floatToIntBits(score));
+			}
+		}
+		for (char c : a) {
+			hash = mix(hash + c);
+		}
+		fingerprint = mix(hash ^ a.length);
+	}
+
+	/**
+	 * Returns a 64-bit hash of everything a score against this profile
+	 * depends on: the query, every score of the matrix and the gap
+	 * penalties. Profiles with the same fingerprint score any target alike,
+	 * so it can key scores kept from one run to the next.
+	 *
+	 * @return the fingerprint
+	 */
+	public long fingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * Scrambles the bits of a value, as the finalizer of MurmurHash3 does.
+	 */
+	private static long mix(long h) {
+		h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+		h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return h ^ (h >>> 33);
+	}
+
+	/**
+	 * Returns the residue code of a character.
+	 *
+	 * @param c
+	 *            residue
+	 * @return code used to index {@link #rows}
+	 */
+	byte code(int c) {
+		return c < codes.length ? codes[c] : 0;
+	}
+
+	/**
+	 * @return scaled open gap penalty
+	 */
+	int gapOpen() {
+		return (int) (open * scale);
+	}
+
+	/**
+	 * @return scaled extend gap penalty
+	 */
+	int gapExtend() {
+		return (int) (extend * scale);
+	}
+
+	/**
+	 * Returns the length of the query
+	 *
+	 * @return query length
+	 */
+	public int length() {
+		return residues.length;
+	}
+
+	/**
+	 * Returns the smallest power of two that makes a value whole.
+	 */
+	private static int scale(float value) {
+		int scale = 1;
+		while (scale <= MAX_SCALE && value * scale != (int) (value * scale)) {
+			scale <<= 1;
+		}
+		return scale;
+	}
+}
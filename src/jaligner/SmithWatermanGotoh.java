@@ -20,6 +20,8 @@ package jaligner;
 
 import jaligner.matrix.Matrix;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * An implementation of the Smith-Waterman algorithm with Gotoh's improvement
  * for biological local pairwise sequence alignment.
@@ -28,6 +30,28 @@ import jaligner.matrix.Matrix;
  */
 
 public class SmithWatermanGotoh {
+	/**
+	 * Whether the incubating vector module is resolved
+	 * (<code>--add-modules jdk.incubator.vector</code>), so that
+	 * {@link StripedSmithWatermanGotoh} can be loaded.
+	 */
+	static final boolean VECTOR = ModuleLayer.boot()
+			.findModule("jdk.incubator.vector").isPresent();
+
+	/**
+	 * Whether the score-only methods run on the striped vector engine. Can
+	 * be turned off with <code>-Djaligner.striped=false</code>.
+	 */
+	static final boolean STRIPED = VECTOR
+			&& Boolean.parseBoolean(System.getProperty("jaligner.striped",
+					"true"));
+
+	/**
+	 * Most cells a pair scored once may have to be scored on the scoring
+	 * matrix; larger pairs are worth compiling a {@link QueryProfile} for.
+	 */
+	static final int ONE_OFF_CELLS = 1 << 13;
+
 	/**
 	 * Hidden constructor
 	 */
@@ -93,6 +117,449 @@ public class SmithWatermanGotoh {
 		return alignment;
 	}
 
+	/**
+	 * Returns the Smith-Waterman score of two sequences without building the
+	 * alignment. Only two rows of the recurrence used by
+	 * {@link #construct(Sequence, Sequence, float[][], float, float, byte[], short[], short[])}
+	 * are kept, so memory is linear in the length of sequence #2 and no
+	 * traceback or {@link Alignment} is allocated.
+	 * <p>
+	 * The returned value equals
+	 * <code>align(s1, s2, matrix, o, e).calculateScore()</code>: the traceback
+	 * starts at the best cell and follows a path whose rescored value is that
+	 * cell's score (0 when either sequence is empty).
+	 * <p>
+	 * Small pairs are scored on the scoring matrix directly, as compiling a
+	 * query costs more than scoring them; to score one sequence against many,
+	 * compile it into a {@link QueryProfile} and use
+	 * {@link #score(QueryProfile, byte[])}, which runs on the striped vector
+	 * engine when the <code>jdk.incubator.vector</code> module is available
+	 * and returns the same value.
+	 *
+	 * @param s1
+	 *            sequene #1 ({@link Sequence})
+	 * @param s2
+	 *            sequene #2 ({@link Sequence})
+	 * @param matrix
+	 *            scoring matrix ({@link Matrix})
+	 * @param o
+	 *            open gap penalty
+	 * @param e
+	 *            extend gap penalty
+	 * @return score of the best local alignment
+	 * @see #align(Sequence, Sequence, Matrix, float, float)
+	 */
+	public static float score(Sequence s1, Sequence s2, Matrix matrix,
+			float o, float e) {
+		float[][] scores = matrix.getScores();
+		char[] a1 = s1.toArray();
+		char[] a2 = s2.toArray();
+		if ((long) a1.length * a2.length > ONE_OFF_CELLS
+				|| !inMatrix(a1, a2, scores)) {
+			return score(new QueryProfile(s2, matrix, o, e), s1.getSequence()
+					.getBytes(StandardCharsets.ISO_8859_1));
+		}
+		return scoreScalar(a1, a2, scores, o, e, null,
+				Float.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Returns the Smith-Waterman score of a target sequence against a
+	 * compiled query, which plays the part of sequence #2 in
+	 * {@link #score(Sequence, Sequence, Matrix, float, float)}. Use this
+	 * form when the same query is scored against many targets.
+	 *
+	 * @param query
+	 *            compiled query ({@link QueryProfile})
+	 * @param target
+	 *            residues of the target sequence
+	 * @return score of the best local alignment
+	 */
+	public static float score(QueryProfile query, byte[] target) {
+		if (STRIPED) {
+			return StripedSmithWatermanGotoh.score(query, target);
+		}
+		return scoreScalar(query, target);
+	}
+
+	/**
+	 * Scores many targets against one compiled query. With the vector
+	 * module available, short queries have the targets interleaved across
+	 * vector lanes by {@link InterSequenceSmithWatermanGotoh}; longer ones
+	 * are striped one target at a time.
+	 *
+	 * @param query
+	 *            compiled query ({@link QueryProfile})
+	 * @param targets
+	 *            residues of the target sequences
+	 * @param scores
+	 *            receives the score of each target, at the same index
+	 * @see #score(QueryProfile, byte[])
+	 */
+	public static void score(QueryProfile query, byte[][] targets,
+			float[] scores) {
+		if (STRIPED && InterSequenceSmithWatermanGotoh.preferred(query)) {
+			InterSequenceSmithWatermanGotoh.score(query, targets, scores);
+			return;
+		}
+		for (int t = 0; t < targets.length; t++) {
+			scores[t] = score(query, targets[t]);
+		}
+	}
+
+	/**
+	 * Tells whether two sequences align with a score of at least a
+	 * threshold, as in
+	 * <code>score(s1, s2, matrix, o, e) &gt;= threshold</code>.
+	 *
+	 * @param s1
+	 *            sequene #1 ({@link Sequence})
+	 * @param s2
+	 *            sequene #2 ({@link Sequence})
+	 * @param matrix
+	 *            scoring matrix ({@link Matrix})
+	 * @param o
+	 *            open gap penalty
+	 * @param e
+	 *            extend gap penalty
+	 * @param threshold
+	 *            score to reach
+	 * @return true if the best local alignment scores at least threshold
+	 * @see #alignsAbove(QueryProfile, byte[], float)
+	 */
+	public static boolean alignsAbove(Sequence s1, Sequence s2,
+			Matrix matrix, float o, float e, float threshold) {
+		float[][] scores = matrix.getScores();
+		char[] a1 = s1.toArray();
+		char[] a2 = s2.toArray();
+		if ((long) a1.length * a2.length > ONE_OFF_CELLS || o < 0 || e < 0
+				|| !inMatrix(a1, a2, scores)) {
+			return alignsAbove(new QueryProfile(s2, matrix, o, e), s1
+					.getSequence().getBytes(StandardCharsets.ISO_8859_1),
+					threshold);
+		}
+		// best score of each residue of sequence #1 against sequence #2
+		float[] best = new float[scores.length];
+		boolean[] known = new boolean[scores.length];
+		float[] bounds = new float[a1.length + 1];
+		for (int i = a1.length - 1; i >= 0; i--) {
+			char c = a1[i];
+			if (!known[c]) {
+				for (int j = 0; j < a2.length; j++) {
+					best[c] = Math.max(best[c], scores[c][a2[j]]);
+				}
+				known[c] = true;
+			}
+			bounds[i] = bounds[i + 1] + best[c];
+		}
+		if (bounds[0] < threshold) {
+			return false;
+		}
+		return scoreScalar(a1, a2, scores, o, e, bounds, threshold) >= threshold;
+	}
+
+	/**
+	 * Tells whether a target aligns to a compiled reference with a score of
+	 * at least a threshold, as in
+	 * <code>score(reference, target) &gt;= threshold</code>, without always
+	 * computing the exact score.
+	 * <p>
+	 * No alignment can gain more from a target residue than that residue's
+	 * best score against the reference, so an alignment still open after a
+	 * row scores at most the best cell of the row plus the best scores of
+	 * the residues left. The recurrence stops as soon as a cell reaches the
+	 * threshold, or this bound falls below it; pairs whose bound falls short
+	 * before the first row are not aligned at all. The bound needs gap
+	 * penalties of at least 0.
+	 *
+	 * @param reference
+	 *            compiled reference ({@link QueryProfile})
+	 * @param target
+	 *            residues of the target sequence
+	 * @param threshold
+	 *            score to reach
+	 * @return true if the best local alignment scores at least threshold
+	 */
+	public static boolean alignsAbove(QueryProfile reference, byte[] target,
+			float threshold) {
+		if (reference.open < 0 || reference.extend < 0) {
+			return score(reference, target) >= threshold;
+		}
+		float[] bounds = new float[target.length + 1];
+		for (int i = target.length - 1; i >= 0; i--) {
+			bounds[i] = bounds[i + 1]
+					+ reference.bestScores[reference.code(target[i] & 0xFF)];
+		}
+		if (bounds[0] < threshold) {
+			return false;
+		}
+		if (STRIPED) {
+			return StripedSmithWatermanGotoh.alignsAbove(reference, target,
+					bounds, threshold);
+		}
+		return scoreScalar(reference, target, bounds, threshold) >= threshold;
+	}
+
+	/**
+	 * Scalar score-only recurrence, also the fallback of the striped engine
+	 * when its integer lanes overflow.
+	 * 
+	 * @param query
+	 *            compiled query
+	 * @param target
+	 *            residues of the target sequence
+	 * @return score of the best local alignment
+	 */
+	static float scoreScalar(QueryProfile query, byte[] target) {
+		return scoreScalar(query, target, null, Float.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Scalar score-only recurrence that gives up once a score is reached or
+	 * out of reach. Runs in integers on the scaled profile when there is
+	 * one and no cell can overflow, which gives the same score as the float
+	 * recurrence.
+	 * 
+	 * @param query
+	 *            compiled query
+	 * @param target
+	 *            residues of the target sequence
+	 * @param bounds
+	 *            best score each suffix of the target can add, or null
+	 * @param stop
+	 *            score after which the exact value no longer matters
+	 * @return score of the best local alignment, or a value below stop once
+	 *         stop is out of reach, or at least stop once it is reached
+	 */
+	static float scoreScalar(QueryProfile query, byte[] target,
+			float[] bounds, float stop) {
+		if (query.scale > 0 && (long) query.maxScore
+				* Math.min(target.length, query.length()) < Integer.MAX_VALUE) {
+			int[] scaledBounds = null;
+			if (bounds != null) {
+				scaledBounds = new int[bounds.length];
+				for (int i = 0; i < bounds.length; i++) {
+					scaledBounds[i] = (int) (bounds[i] * query.scale);
+				}
+			}
+			// scaled scores are whole, so reaching stop means reaching the
+			// next whole number at or above it
+			int scaledStop = (int) Math.min(Math.ceil((double) stop
+					* query.scale), Integer.MAX_VALUE);
+			return (float) scoreInteger(query, target, scaledBounds,
+					scaledStop) / query.scale;
+		}
+
+		float o = query.open;
+		float e = query.extend;
+
+		int m = target.length + 1;
+		int n = query.length() + 1;
+
+		float f; // score of alignment x1...xi to y1...yi if xi aligns to yi
+		float[] g = new float[n]; // score if xi aligns to a gap after yi
+		float h; // score if yi aligns to a gap after xi
+		float[] v = new float[n]; // best score of alignment x1...xi to y1...yi
+		float vDiagonal;
+
+		for (int j = 0; j < n; j++) {
+			g[j] = Float.NEGATIVE_INFINITY;
+			v[j] = 0;
+		}
+
+		float g1, g2, h1, h2;
+		float best = 0;
+		float rowBest;
+
+		for (int i = 1; i < m; i++) {
+			float[] row = query.rows[query.code(target[i - 1] & 0xFF)];
+			h = Float.NEGATIVE_INFINITY;
+			vDiagonal = v[0];
+			rowBest = 0;
+			for (int j = 1; j < n; j++) {
+				f = vDiagonal + row[j - 1];
+
+				g1 = g[j] - e;
+				g2 = v[j] - o;
+				g[j] = g1 > g2 ? g1 : g2;
+
+				h1 = h - e;
+				h2 = v[j - 1] - o;
+				h = h1 > h2 ? h1 : h2;
+
+				vDiagonal = v[j];
+				v[j] = maximum(f, g[j], h, 0);
+
+				if (v[j] > rowBest) {
+					rowBest = v[j];
+				}
+			}
+			if (rowBest > best) {
+				best = rowBest;
+			}
+			if (best >= stop) {
+				return best;
+			}
+			if (bounds != null && rowBest + bounds[i] < stop) {
+				return rowBest + bounds[i];
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Scalar score-only recurrence on a scoring matrix rather than a
+	 * compiled query, for pairs scored once. Keeps two rows, as
+	 * {@link #scoreScalar(QueryProfile, byte[], float[], float)} does.
+	 * 
+	 * @param a1
+	 *            residues of sequence #1, all inside the matrix
+	 * @param a2
+	 *            residues of sequence #2, all inside the matrix
+	 * @param matrix
+	 *            scores of the scoring matrix
+	 * @param o
+	 *            open gap penalty
+	 * @param e
+	 *            extend gap penalty
+	 * @param bounds
+	 *            best score each suffix of sequence #1 can add, or null
+	 * @param stop
+	 *            score after which the exact value no longer matters
+	 * @return score of the best local alignment, or a value below stop once
+	 *         stop is out of reach, or at least stop once it is reached
+	 */
+	private static float scoreScalar(char[] a1, char[] a2, float[][] matrix,
+			float o, float e, float[] bounds, float stop) {
+		int m = a1.length + 1;
+		int n = a2.length + 1;
+
+		float f; // score of alignment x1...xi to y1...yi if xi aligns to yi
+		float[] g = new float[n]; // score if xi aligns to a gap after yi
+		float h; // score if yi aligns to a gap after xi
+		float[] v = new float[n]; // best score of alignment x1...xi to y1...yi
+		float vDiagonal;
+
+		for (int j = 0; j < n; j++) {
+			g[j] = Float.NEGATIVE_INFINITY;
+			v[j] = 0;
+		}
+
+		float g1, g2, h1, h2;
+		float best = 0;
+		float rowBest;
+
+		for (int i = 1; i < m; i++) {
+			float[] row = matrix[a1[i - 1]];
+			h = Float.NEGATIVE_INFINITY;
+			vDiagonal = v[0];
+			rowBest = 0;
+			for (int j = 1; j < n; j++) {
+				f = vDiagonal + row[a2[j - 1]];
+
+				g1 = g[j] - e;
+				g2 = v[j] - o;
+				g[j] = g1 > g2 ? g1 : g2;
+
+				h1 = h - e;
+				h2 = v[j - 1] - o;
+				h = h1 > h2 ? h1 : h2;
+
+				vDiagonal = v[j];
+				v[j] = maximum(f, g[j], h, 0);
+
+				if (v[j] > rowBest) {
+					rowBest = v[j];
+				}
+			}
+			if (rowBest > best) {
+				best = rowBest;
+			}
+			if (best >= stop) {
+				return best;
+			}
+			if (bounds != null && rowBest + bounds[i] < stop) {
+				return rowBest + bounds[i];
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Whether every pair of residues of two sequences indexes the scoring
+	 * matrix.
+	 */
+	private static boolean inMatrix(char[] a1, char[] a2, float[][] matrix) {
+		int columns = 0;
+		for (char c : a2) {
+			columns = Math.max(columns, c + 1);
+		}
+		for (char c : a1) {
+			if (c >= matrix.length || matrix[c].length < columns) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Integer form of
+	 * {@link #scoreScalar(QueryProfile, byte[], float[], float)} on the
+	 * scaled profile. Gap scores at or below 0 never beat the local
+	 * alignment floor, so 0 stands in for minus infinity.
+	 * 
+	 * @param query
+	 *            compiled query
+	 * @param target
+	 *            residues of the target sequence
+	 * @param bounds
+	 *            best scaled score each suffix of the target can add, or null
+	 * @param stop
+	 *            scaled score after which the exact value no longer matters
+	 * @return the scaled score, or a value below stop once stop is out of
+	 *         reach, or at least stop once it is reached
+	 */
+	private static int scoreInteger(QueryProfile query, byte[] target,
+			int[] bounds, int stop) {
+		int o = query.gapOpen();
+		int e = query.gapExtend();
+
+		int m = target.length + 1;
+		int n = query.length() + 1;
+
+		int f; // score of alignment x1...xi to y1...yi if xi aligns to yi
+		int[] g = new int[n]; // score if xi aligns to a gap after yi
+		int h; // score if yi aligns to a gap after xi
+		int[] v = new int[n]; // best score of alignment x1...xi to y1...yi
+		int vDiagonal;
+
+		int best = 0;
+		int rowBest;
+
+		for (int i = 1; i < m; i++) {
+			int[] row = query.scaledRows[query.code(target[i - 1] & 0xFF)];
+			h = 0;
+			vDiagonal = 0;
+			rowBest = 0;
+			for (int j = 1; j < n; j++) {
+				f = vDiagonal + row[j - 1];
+				g[j] = Math.max(g[j] - e, v[j] - o);
+				h = Math.max(h - e, v[j - 1] - o);
+				vDiagonal = v[j];
+				v[j] = Math.max(Math.max(f, g[j]), Math.max(h, 0));
+				rowBest = Math.max(rowBest, v[j]);
+			}
+			best = Math.max(best, rowBest);
+			if (best >= stop) {
+				return best;
+			}
+			if (bounds != null && rowBest + bounds[i] < stop) {
+				return rowBest + bounds[i];
+			}
+		}
+		return best;
+	}
+
 	/**
 	 * Constructs directions matrix for the traceback
 	 * 
@@ -0,0 +1,174 @@
+package jaligner;
+
+import jaligner.matrix.Matrix;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SmithWatermanGotohTest {
+    private static final Matrix BLOSUM_62 = BLOSUM62.Load();
+    private List<String> peptides;
+
+    @BeforeEach
+    void loadReferencePeptides() throws IOException {
+        peptides = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader("./referenceGenes.list"))) {
+            while (reader.readLine() != null) {
+                peptides.add(reader.readLine());
+            }
+        }
+        // point mutants and fragments of every reference, so scores land on both sides of 60
+        Random random = new Random(42);
+        String acids = "ARNDCQEGHILKMFPSTWYVBZX";
+        for (int i = 0, n = peptides.size(); i < n; i++) {
+            char[] mutant = peptides.get(i).toCharArray();
+            for (int k = 0; k < mutant.length; k++)
+                if (random.nextInt(3) == 0)
+                    mutant[k] = acids.charAt(random.nextInt(acids.length()));
+            peptides.add(new String(mutant));
+            peptides.add(peptides.get(i).substring(0, peptides.get(i).length() / 4));
+        }
+        peptides.add("");
+    }
+
+    @Test
+    void ScoreMatchesCalculatedScore() {
+        for (String a : peptides) {
+            for (String b : peptides) {
+                Sequence s1 = new Sequence(a);
+                Sequence s2 = new Sequence(b);
+                assertEquals(SmithWatermanGotoh.align(s1, s2, BLOSUM_62, 10f, 0.5f).calculateScore(),
+                        SmithWatermanGotoh.score(s1, s2, BLOSUM_62, 10f, 0.5f));
+            }
+        }
+    }
+
+    @Test
+    void ScalarScoreMatchesCalculatedScore() {
+        // halves scale to whole numbers and take the integer recurrence, tenths the float one
+        for (float extend : new float[] { 0.5f, 0.3f }) {
+            for (String a : peptides) {
+                for (String b : peptides) {
+                    Sequence s1 = new Sequence(a);
+                    Sequence s2 = new Sequence(b);
+                    assertEquals(SmithWatermanGotoh.align(s1, s2, BLOSUM_62, 10f, extend).calculateScore(),
+                            SmithWatermanGotoh.scoreScalar(new QueryProfile(s2, BLOSUM_62, 10f, extend), a.getBytes()));
+                }
+            }
+        }
+    }
+
+    @Test
+    void OneOffScoreMatchesCalculatedScore() {
+        // pairs small enough to be scored on the matrix, without a QueryProfile
+        for (float extend : new float[] { 0.5f, 0.3f }) {
+            for (String a : peptides) {
+                for (String b : peptides) {
+                    Sequence s1 = new Sequence(a.substring(0, Math.min(a.length(), 90)));
+                    Sequence s2 = new Sequence(b.substring(0, Math.min(b.length(), 90)));
+                    float score = SmithWatermanGotoh.align(s1, s2, BLOSUM_62, 10f, extend).calculateScore();
+                    assertEquals(score, SmithWatermanGotoh.score(s1, s2, BLOSUM_62, 10f, extend));
+                    for (float threshold : new float[] { 60f, score, score + 0.5f, score - 0.5f }) {
+                        assertEquals(score >= threshold,
+                                SmithWatermanGotoh.alignsAbove(s1, s2, BLOSUM_62, 10f, extend, threshold));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void StripedScoreMatchesCalculatedScore() {
+        for (String a : peptides) {
+            for (String b : peptides) {
+                Sequence s1 = new Sequence(a);
+                Sequence s2 = new Sequence(b);
+                assertEquals(SmithWatermanGotoh.align(s1, s2, BLOSUM_62, 10f, 0.5f).calculateScore(),
+                        StripedSmithWatermanGotoh.score(s1, s2, BLOSUM_62, 10f, 0.5f));
+            }
+        }
+    }
+
+    @Test
+    void BatchScoreMatchesCalculatedScore() {
+        byte[][] targets = new byte[peptides.size()][];
+        for (int t = 0; t < targets.length; t++)
+            targets[t] = peptides.get(t).getBytes();
+        float[] scores = new float[targets.length];
+        for (String b : peptides) {
+            // whole and trimmed queries, each alone or many to a vector
+            for (String query : new String[] { b, b.substring(0, Math.min(b.length(), 12)) }) {
+                Sequence s2 = new Sequence(query);
+                SmithWatermanGotoh.score(new QueryProfile(s2, BLOSUM_62, 10f, 0.5f), targets, scores);
+                for (int t = 0; t < targets.length; t++)
+                    assertEquals(SmithWatermanGotoh.align(new Sequence(peptides.get(t)), s2, BLOSUM_62, 10f, 0.5f).calculateScore(),
+                            scores[t]);
+            }
+        }
+    }
+
+    @Test
+    void ForcedInterSequenceBatchMatchesCalculatedScore() {
+        // the engine only runs by itself on 512-bit vectors, so force it through the batch entry point
+        String mode = System.setProperty("jaligner.intersequence", "true");
+        try {
+            byte[][] targets = new byte[peptides.size()][];
+            for (int t = 0; t < targets.length; t++)
+                targets[t] = peptides.get(t).getBytes();
+            float[] scores = new float[targets.length];
+            for (String b : peptides) {
+                Sequence s2 = new Sequence(b);
+                SmithWatermanGotoh.score(new QueryProfile(s2, BLOSUM_62, 10f, 0.5f), targets, scores);
+                for (int t = 0; t < targets.length; t++)
+                    assertEquals(SmithWatermanGotoh.align(new Sequence(peptides.get(t)), s2, BLOSUM_62, 10f, 0.5f).calculateScore(),
+                            scores[t]);
+            }
+        } finally {
+            if (mode == null)
+                System.clearProperty("jaligner.intersequence");
+            else
+                System.setProperty("jaligner.intersequence", mode);
+        }
+    }
+
+    @Test
+    void InterSequenceScoreMatchesCalculatedScore() {
+        // enough copies that the targets overflowing 8-bit lanes are rescored together in 16-bit ones
+        int copies = 8;
+        byte[][] targets = new byte[peptides.size() * copies][];
+        for (int t = 0; t < targets.length; t++)
+            targets[t] = peptides.get(t % peptides.size()).getBytes();
+        float[] scores = new float[targets.length];
+        for (String b : peptides) {
+            Sequence s2 = new Sequence(b);
+            InterSequenceSmithWatermanGotoh.score(new QueryProfile(s2, BLOSUM_62, 10f, 0.5f), targets, scores);
+            for (int t = 0; t < targets.length; t++)
+                assertEquals(SmithWatermanGotoh.align(new Sequence(peptides.get(t % peptides.size())), s2, BLOSUM_62, 10f, 0.5f).calculateScore(),
+                        scores[t]);
+        }
+    }
+
+    @Test
+    void AlignsAboveMatchesScoreThreshold() {
+        for (String a : peptides) {
+            for (String b : peptides) {
+                Sequence s1 = new Sequence(a);
+                Sequence s2 = new Sequence(b);
+                float score = SmithWatermanGotoh.score(s1, s2, BLOSUM_62, 10f, 0.5f);
+                // the homology threshold, and either side of the exact score
+                for (float threshold : new float[] { 60f, score, score + 0.5f, score - 0.5f }) {
+                    assertEquals(score >= threshold,
+                            SmithWatermanGotoh.alignsAbove(s1, s2, BLOSUM_62, 10f, 0.5f, threshold));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,436 @@
+package jaligner;
+
+import jaligner.matrix.Matrix;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Score-only Smith-Waterman-Gotoh using Farrar's striped query profile
+ * (Bioinformatics 23(2), 2007) on the JDK Vector API.
+ * <p>
+ * The recurrence is the one of {@link SmithWatermanGotoh}, run in integers
+ * after scaling the matrix and gap penalties by the smallest power of two
+ * that makes them whole (2 for BLOSUM62 with 10/0.5). Scores are first
+ * computed in 8-bit lanes; if the best score gets close enough to the lane
+ * maximum that a cell could wrap, the pair is rerun in 16-bit lanes, and
+ * then in the scalar float recurrence. The returned value is therefore
+ * always identical to {@link SmithWatermanGotoh#score(Sequence, Sequence, Matrix, float, float)}.
+ * <p>
+ * Needs <code>--add-modules jdk.incubator.vector</code> at compile and run
+ * time.
+ */
+
+public class StripedSmithWatermanGotoh {
+	private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+
+	private static final VectorSpecies<Short> SHORTS = ShortVector.SPECIES_PREFERRED;
+
+	/**
+	 * Per-thread working storage, grown on demand and reused across calls
+	 */
+	private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal
+			.withInitial(Scratch::new);
+
+	/**
+	 * Hidden constructor
+	 */
+	private StripedSmithWatermanGotoh() {
+		super();
+	}
+
+	/**
+	 * Returns the Smith-Waterman score of two sequences. Sequence #2 is the
+	 * one that gets striped into the query profile.
+	 *
+	 * @param s1
+	 *            sequene #1 ({@link Sequence})
+	 * @param s2
+	 *            sequene #2 ({@link Sequence})
+	 * @param matrix
+	 *            scoring matrix ({@link Matrix})
+	 * @param o
+	 *            open gap penalty
+	 * @param e
+	 *            extend gap penalty
+	 * @return score of the best local alignment
+	 */
+	public static float score(Sequence s1, Sequence s2, Matrix matrix,
+			float o, float e) {
+		return score(new QueryProfile(s2, matrix, o, e), s1.getSequence()
+				.getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+	/**
+	 * Returns the Smith-Waterman score of a target sequence against a
+	 * compiled query.
+	 *
+	 * @param query
+	 *            compiled query ({@link QueryProfile})
+	 * @param target
+	 *            residues of the target sequence
+	 * @return score of the best local alignment
+	 */
+	public static float score(QueryProfile query, byte[] target) {
+		if (target.length == 0 || query.length() == 0) {
+			return 0;
+		}
+		int best = -1;
+		if (query.stripedBytes != null) {
+			best = scoreBytes(query, target, null, Integer.MAX_VALUE);
+		}
+		if (best < 0 && query.stripedShorts != null) {
+			best = scoreShorts(query, target, null, Integer.MAX_VALUE);
+		}
+		if (best >= 0) {
+			return (float) best / query.scale;
+		}
+		return SmithWatermanGotoh.scoreScalar(query, target);
+	}
+
+	/**
+	 * Striped form of
+	 * {@link SmithWatermanGotoh#alignsAbove(QueryProfile, byte[], float)}.
+	 *
+	 * @param query
+	 *            compiled query ({@link QueryProfile})
+	 * @param target
+	 *            residues of the target sequence
+	 * @param bounds
+	 *            best score each suffix of the target can add
+	 * @param threshold
+	 *            score to reach
+	 * @return true if the best local alignment scores at least threshold
+	 */
+	static boolean alignsAbove(QueryProfile query, byte[] target,
+			float[] bounds, float threshold) {
+		if (target.length == 0 || query.length() == 0) {
+			return 0 >= threshold;
+		}
+		int best = -1;
+		int stop = 0;
+		if (query.stripedBytes != null || query.stripedShorts != null) {
+			// scaled scores are whole, so reaching the threshold means
+			// reaching the next whole number at or above it
+			stop = (int) Math.min(Math.ceil((double) threshold * query.scale),
+					Integer.MAX_VALUE);
+			int[] scaled = new int[bounds.length];
+			for (int i = 0; i < bounds.length; i++) {
+				scaled[i] = (int) (bounds[i] * query.scale);
+			}
+			if (query.stripedBytes != null) {
+				best = scoreBytes(query, target, scaled, stop);
+			}
+			if (best < 0 && query.stripedShorts != null) {
+				best = scoreShorts(query, target, scaled, stop);
+			}
+		}
+		if (best >= 0) {
+			return best >= stop;
+		}
+		return SmithWatermanGotoh.scoreScalar(query, target, bounds, threshold) >= threshold;
+	}
+
+	/**
+	 * Lays out a profile for the striped recurrence: entry
+	 * <code>segment * lanes + lane</code> of a row holds the score against
+	 * query position <code>lane * segments + segment</code>, 0 past its end.
+	 */
+	private static int[][] stripe(int[][] rows, int lanes) {
+		int length = rows[0].length;
+		int segments = (length + lanes - 1) / lanes;
+		int[][] striped = new int[rows.length][segments * lanes];
+		for (int code = 0; code < rows.length; code++) {
+			for (int segment = 0, k = 0; segment < segments; segment++) {
+				for (int lane = 0; lane < lanes; lane++, k++) {
+					int j = lane * segments + segment;
+					if (j < length) {
+						striped[code][k] = rows[code][j];
+					}
+				}
+			}
+		}
+		return striped;
+	}
+
+	/**
+	 * Returns the striped 8-bit profile of scaled score rows, or null if
+	 * scores with these penalties might not fit in 8-bit lanes.
+	 */
+	static byte[][] stripeBytes(int[][] rows, int o, int e, int maxScore) {
+		if (o + e > -Byte.MIN_VALUE || maxScore >= Byte.MAX_VALUE) {
+			return null;
+		}
+		int[][] striped = stripe(rows, BYTES.length());
+		byte[][] profile = new byte[striped.length][];
+		for (int code = 0; code < striped.length; code++) {
+			profile[code] = new byte[striped[code].length];
+			for (int k = 0; k < striped[code].length; k++) {
+				// anything below the lane minimum loses to 0 just the same
+				profile[code][k] = (byte) Math.max(striped[code][k], Byte.MIN_VALUE);
+			}
+		}
+		return profile;
+	}
+
+	/**
+	 * Returns the striped 16-bit profile of scaled score rows, or null if
+	 * scores with these penalties might not fit in 16-bit lanes.
+	 */
+	static short[][] stripeShorts(int[][] rows, int o, int e, int maxScore) {
+		if (o + e > -Short.MIN_VALUE || maxScore >= Short.MAX_VALUE) {
+			return null;
+		}
+		int[][] striped = stripe(rows, SHORTS.length());
+		short[][] profile = new short[striped.length][];
+		for (int code = 0; code < striped.length; code++) {
+			profile[code] = new short[striped[code].length];
+			for (int k = 0; k < striped[code].length; k++) {
+				// anything below the lane minimum loses to 0 just the same
+				profile[code][k] = (short) Math.max(striped[code][k], Short.MIN_VALUE);
+			}
+		}
+		return profile;
+	}
+
+	/**
+	 * Runs the striped recurrence in 8-bit lanes, giving up once a scaled score
+	 * is reached or out of reach.
+	 *
+	 * @param bounds
+	 *            best scaled score each suffix of the target can add, or
+	 *            null
+	 * @param stop
+	 *            scaled score after which the exact value no longer matters
+	 * @return the scaled score, or a value below stop once stop is out of
+	 *         reach, or at least stop once it is reached, or -1 if it might
+	 *         not fit
+	 */
+	private static int scoreBytes(QueryProfile query, byte[] target,
+			int[] bounds, int stop) {
+		byte[][] profile = query.stripedBytes;
+		int lanes = BYTES.length();
+		int limit = Byte.MAX_VALUE - query.maxScore;
+
+		int length = profile[0].length;
+		Scratch scratch = SCRATCH.get();
+		scratch.ensureBytes(length);
+		byte[] hLoad = scratch.byteHLoad;
+		byte[] hStore = scratch.byteHStore;
+		byte[] eStore = scratch.byteEStore;
+		Arrays.fill(hStore, 0, length, (byte) 0);
+		Arrays.fill(eStore, 0, length, (byte) 0);
+
+		ByteVector zero = ByteVector.zero(BYTES);
+		ByteVector gapOpen = ByteVector.broadcast(BYTES, (byte) query.gapOpen());
+		ByteVector gapExtend = ByteVector.broadcast(BYTES, (byte) query.gapExtend());
+		ByteVector max = zero;
+		ByteVector rowMax, vH, vE, vF, vOpen;
+		byte[] swap;
+
+		for (int i = 0; i < target.length; i++) {
+			byte[] row = profile[query.code(target[i] & 0xFF)];
+
+			vF = zero;
+			rowMax = zero;
+			vH = ByteVector.fromArray(BYTES, hStore, length - lanes).unslice(1);
+			swap = hLoad;
+			hLoad = hStore;
+			hStore = swap;
+
+			for (int k = 0; k < length; k += lanes) {
+				vH = vH.add(ByteVector.fromArray(BYTES, row, k));
+				vE = ByteVector.fromArray(BYTES, eStore, k);
+				vH = vH.max(vE).max(vF).max(zero);
+				rowMax = rowMax.max(vH);
+				vH.intoArray(hStore, k);
+
+				vOpen = vH.sub(gapOpen);
+				vE.sub(gapExtend).max(vOpen).intoArray(eStore, k);
+				vF = vF.sub(gapExtend).max(vOpen);
+
+				vH = ByteVector.fromArray(BYTES, hLoad, k);
+			}
+
+			// Lazy F: carry horizontal gaps across segment boundaries until
+			// they can no longer raise any cell. Gap scores at or below 0
+			// never beat the local alignment floor, so 0 stands in for minus
+			// infinity throughout.
+			vF = zero.slice(lanes - 1, vF);
+			int k = 0;
+			int rounds = 0;
+			vH = ByteVector.fromArray(BYTES, hStore, k);
+			while (vF.compare(VectorOperators.GT, vH.sub(gapOpen).max(zero))
+					.anyTrue()) {
+				vH = vH.max(vF);
+				vH.intoArray(hStore, k);
+				ByteVector.fromArray(BYTES, eStore, k).max(vH.sub(gapOpen))
+						.intoArray(eStore, k);
+				vF = vF.sub(gapExtend);
+				k += lanes;
+				if (k == length) {
+					if (++rounds == lanes) {
+						break;
+					}
+					k = 0;
+					vF = zero.slice(lanes - 1, vF);
+				}
+				vH = ByteVector.fromArray(BYTES, hStore, k);
+			}
+
+			// Cells raised by lazy F stay below the cell their gap opened
+			// from, so the row maximum is already complete
+			max = max.max(rowMax);
+			int best = max.reduceLanes(VectorOperators.MAX);
+			if (best >= limit) {
+				return -1;
+			}
+			if (best >= stop) {
+				return best;
+			}
+			if (bounds != null) {
+				int bound = rowMax.reduceLanes(VectorOperators.MAX) + bounds[i + 1];
+				if (bound < stop) {
+					return bound;
+				}
+			}
+		}
+		return max.reduceLanes(VectorOperators.MAX);
+	}
+
+	/**
+	 * Runs the striped recurrence in 16-bit lanes, giving up once a scaled score
+	 * is reached or out of reach.
+	 *
+	 * @param bounds
+	 *            best scaled score each suffix of the target can add, or
+	 *            null
+	 * @param stop
+	 *            scaled score after which the exact value no longer matters
+	 * @return the scaled score, or a value below stop once stop is out of
+	 *         reach, or at least stop once it is reached, or -1 if it might
+	 *         not fit
+	 */
+	private static int scoreShorts(QueryProfile query, byte[] target,
+			int[] bounds, int stop) {
+		short[][] profile = query.stripedShorts;
+		int lanes = SHORTS.length();
+		int limit = Short.MAX_VALUE - query.maxScore;
+
+		int length = profile[0].length;
+		Scratch scratch = SCRATCH.get();
+		scratch.ensureShorts(length);
+		short[] hLoad = scratch.shortHLoad;
+		short[] hStore = scratch.shortHStore;
+		short[] eStore = scratch.shortEStore;
+		Arrays.fill(hStore, 0, length, (short) 0);
+		Arrays.fill(eStore, 0, length, (short) 0);
+
+		ShortVector zero = ShortVector.zero(SHORTS);
+		ShortVector gapOpen = ShortVector.broadcast(SHORTS, (short) query.gapOpen());
+		ShortVector gapExtend = ShortVector.broadcast(SHORTS, (short) query.gapExtend());
+		ShortVector max = zero;
+		ShortVector rowMax, vH, vE, vF, vOpen;
+		short[] swap;
+
+		for (int i = 0; i < target.length; i++) {
+			short[] row = profile[query.code(target[i] & 0xFF)];
+
+			vF = zero;
+			rowMax = zero;
+			vH = ShortVector.fromArray(SHORTS, hStore, length - lanes).unslice(1);
+			swap = hLoad;
+			hLoad = hStore;
+			hStore = swap;
+
+			for (int k = 0; k < length; k += lanes) {
+				vH = vH.add(ShortVector.fromArray(SHORTS, row, k));
+				vE = ShortVector.fromArray(SHORTS, eStore, k);
+				vH = vH.max(vE).max(vF).max(zero);
+				rowMax = rowMax.max(vH);
+				vH.intoArray(hStore, k);
+
+				vOpen = vH.sub(gapOpen);
+				vE.sub(gapExtend).max(vOpen).intoArray(eStore, k);
+				vF = vF.sub(gapExtend).max(vOpen);
+
+				vH = ShortVector.fromArray(SHORTS, hLoad, k);
+			}
+
+			vF = zero.slice(lanes - 1, vF);
+			int k = 0;
+			int rounds = 0;
+			vH = ShortVector.fromArray(SHORTS, hStore, k);
+			while (vF.compare(VectorOperators.GT, vH.sub(gapOpen).max(zero))
+					.anyTrue()) {
+				vH = vH.max(vF);
+				vH.intoArray(hStore, k);
+				ShortVector.fromArray(SHORTS, eStore, k).max(vH.sub(gapOpen))
+						.intoArray(eStore, k);
+				vF = vF.sub(gapExtend);
+				k += lanes;
+				if (k == length) {
+					if (++rounds == lanes) {
+						break;
+					}
+					k = 0;
+					vF = zero.slice(lanes - 1, vF);
+				}
+				vH = ShortVector.fromArray(SHORTS, hStore, k);
+			}
+
+			max = max.max(rowMax);
+			int best = max.reduceLanes(VectorOperators.MAX);
+			if (best >= limit) {
+				return -1;
+			}
+			if (best >= stop) {
+				return best;
+			}
+			if (bounds != null) {
+				int bound = rowMax.reduceLanes(VectorOperators.MAX) + bounds[i + 1];
+				if (bound < stop) {
+					return bound;
+				}
+			}
+		}
+		return max.reduceLanes(VectorOperators.MAX);
+	}
+
+	/**
+	 * Working storage of one thread
+	 */
+	private static class Scratch {
+		byte[] byteHLoad = new byte[0];
+
+		byte[] byteHStore = new byte[0];
+
+		byte[] byteEStore = new byte[0];
+
+		short[] shortHLoad = new short[0];
+
+		short[] shortHStore = new short[0];
+
+		short[] shortEStore = new short[0];
+
+		void ensureBytes(int length) {
+			if (byteHLoad.length < length) {
+				byteHLoad = new byte[length];
+				byteHStore = new byte[length];
+				byteEStore = new byte[length];
+			}
+		}
+
+		void ensureShorts(int length) {
+			if (shortHLoad.length < length) {
+				shortHLoad = new short[length];
+				shortHStore = new short[length];
+				shortEStore = new short[length];
+			}
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package qut;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+/**
+ * Reads BGZF (blocked gzip, as written by bgzip and samtools): a series of
+ * gzip members of at most 64 KB whose headers give their compressed size, so
+ * the next block can be found without inflating this one. Blocks are read in
+ * order by the calling thread and inflated on the common fork-join pool, a
+ * bounded number of blocks ahead of the reader.
+ */
+public class BgzfInputStream extends InputStream
+{
+    private static final int AHEAD = Math.max(2, 4 * ForkJoinPool.getCommonPoolParallelism());
+
+    private final DataInputStream in;
+    private final ArrayDeque<CompletableFuture<byte[]>> blocks = new ArrayDeque<CompletableFuture<byte[]>>();
+    private boolean eof;
+    private byte[] block = new byte[0];
+    private int offset;
+
+    public BgzfInputStream(InputStream in)
+    {
+        this.in = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+    }
+
+    /**
+     * Tells whether a file starts like a BGZF block: a gzip header with a
+     * "BC" extra subfield.
+     */
+    public static boolean IsBgzf(byte[] header, int length)
+    {
+        return length >= 16 && (header[0] & 0xFF) == 0x1f && (header[1] & 0xFF) == 0x8b && header[2] == 8
+                && (header[3] & 4) != 0 && header[12] == 'B' && header[13] == 'C';
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        if (len == 0)
+            return 0;
+        while (offset == block.length)
+            if (!NextBlock())
+                return -1;
+        int n = Math.min(len, block.length - offset);
+        System.arraycopy(block, offset, b, off, n);
+        offset += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        blocks.clear();
+        in.close();
+    }
+
+    private boolean NextBlock() throws IOException
+    {
+        while (!eof && blocks.size() < AHEAD)
+        {
+            byte[] compressed = ReadBlock();
+            if (compressed == null)
+                eof = true;
+            else
+                blocks.add(CompletableFuture.supplyAsync(() -> Inflate(compressed)));
+        }
+        CompletableFuture<byte[]> next = blocks.poll();
+        if (next == null)
+            return false;
+        try {
+            block = next.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof UncheckedIOException ? ((UncheckedIOException) e.getCause()).getCause()
+                    : new IOException(e.getCause());
+        }
+        offset = 0;
+        return true;
+    }
+
+    // Deflated data of the next block followed by its CRC32 and size, or null at the end of the file
+    private byte[] ReadBlock() throws IOException
+    {
+        int first = in.read();
+        if (first < 0)
+            return null;
+        byte[] header = new byte[12];
+        header[0] = (byte) first;
+        in.readFully(header, 1, 11);
+        if ((header[0] & 0xFF) != 0x1f || (header[1] & 0xFF) != 0x8b || header[2] != 8 || (header[3] & 4) == 0)
+            throw new IOException("Not a BGZF block");
+
+        int extraLength = (header[10] & 0xFF) | (header[11] & 0xFF) << 8;
+        byte[] extra = new byte[extraLength];
+        in.readFully(extra);
+        int blockSize = -1;
+        for (int i = 0; i + 4 <= extraLength; )
+        {
+            int length = (extra[i + 2] & 0xFF) | (extra[i + 3] & 0xFF) << 8;
+            if (extra[i] == 'B' && extra[i + 1] == 'C' && length == 2 && i + 6 <= extraLength)
+                blockSize = ((extra[i + 4] & 0xFF) | (extra[i + 5] & 0xFF) << 8) + 1;
+            i += 4 + length;
+        }
+        if (blockSize < 0)
+            throw new IOException("BGZF block without its BC size field");
+        // room for the header, the extra field, the CRC32 and the size
+        if (blockSize < 12 + extraLength + 8)
+            throw new IOException("Corrupt BGZF block");
+
+        byte[] rest = new byte[blockSize - 12 - extraLength];
+        in.readFully(rest);
+        return rest;
+    }
+
+    private static byte[] Inflate(byte[] compressed)
+    {
+        int length = compressed.length;
+        int crc = LittleEndian(compressed, length - 8);
+        int size = LittleEndian(compressed, length - 4);
+        if (size < 0 || size > 1 << 16)
+            throw new UncheckedIOException(new IOException("Corrupt BGZF block"));
+        byte[] data = new byte[size];
+
+        // one per block, ended at once, rather than one per pool thread that is never freed
+        Inflater inflater = new Inflater(true);
+        inflater.setInput(compressed, 0, length - 8);
+        try {
+            int n = 0;
+            while (n < size && !inflater.finished())
+            {
+                int inflated = inflater.inflate(data, n, size - n);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                n += inflated;
+            }
+            if (n != size)
+                throw new UncheckedIOException(new IOException("Truncated BGZF block"));
+        } catch (DataFormatException e) {
+            throw new UncheckedIOException(new IOException("Corrupt BGZF block", e));
+        } finally {
+            inflater.end();
+        }
+
+        CRC32 check = new CRC32();
+        check.update(data, 0, size);
+        if ((int) check.getValue() != crc)
+            throw new UncheckedIOException(new IOException("BGZF block fails its CRC check"));
+        return data;
+    }
+
+    private static int LittleEndian(byte[] bytes, int at)
+    {
+        return (bytes[at] & 0xFF) | (bytes[at + 1] & 0xFF) << 8 | (bytes[at + 2] & 0xFF) << 16 | (bytes[at + 3] & 0xFF) << 24;
+    }
+}
@@ -8,7 +8,7 @@ import java.util.Comparator;
 
 public class BioPatterns 
 {
-    public static Match getBestMatch(Series pattern, String inputString)
+    public static Match getBestMatch(Series pattern, CharSequence inputString)
     {
         return new Sequence("DNA",inputString).searchBest(1, 1, pattern);
     }	        
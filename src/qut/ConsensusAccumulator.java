@@ -0,0 +1,96 @@
+package qut;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Sigma70Consensus counts for a set of names plus "all", which any number
+ * of threads can add matches to without locking. The counts are striped:
+ * each thread adds to the stripe picked by its id with atomic increments,
+ * so threads of a pool rarely touch the same counters, and Snapshot sums
+ * the stripes into ordinary Sigma70Consensus objects.
+ */
+public class ConsensusAccumulator
+{
+    private static final int BOX = 6;
+    // Per name: predictions, gap total, then the -35 and -10 counts, position * 4 + base
+    private static final int PREDICTIONS = 0, GAP = 1, MINUS35 = 2, MINUS10 = MINUS35 + 4 * BOX;
+    private static final int STRIDE = MINUS10 + 4 * BOX;
+    private static final int PADDING = 16; // a cache line of ints between stripes
+
+    private final Map<String, Integer> slots = new HashMap<String, Integer>();
+    private final AtomicIntegerArray[] stripes;
+    private final int all;
+
+    public ConsensusAccumulator(Collection<String> names)
+    {
+        for (String name : names)
+            slots.putIfAbsent(name, slots.size());
+        slots.putIfAbsent("all", slots.size());
+        all = slots.get("all");
+
+        int count = Integer.highestOneBit(Math.max(1, 2 * Runtime.getRuntime().availableProcessors() - 1)) << 1;
+        stripes = new AtomicIntegerArray[count];
+        for (int i = 0; i < count; i++)
+            stripes[i] = new AtomicIntegerArray(slots.size() * STRIDE + PADDING);
+    }
+
+    /**
+     * Counts a match for a name and for "all".
+     */
+    public void addMatch(String name, Sigma70Match match)
+    {
+        Integer slot = slots.get(name);
+        if (slot == null)
+            throw new IllegalArgumentException("No consensus for " + name);
+        AtomicIntegerArray stripe = stripes[(int) Thread.currentThread().threadId() & (stripes.length - 1)];
+        Add(stripe, slot * STRIDE, match);
+        if (slot != all)
+            Add(stripe, all * STRIDE, match);
+    }
+
+    /**
+     * The consensus of each name, summed over every stripe. Matches added
+     * while it runs may be counted in part, so call it once the adding
+     * threads are done.
+     */
+    public HashMap<String, Sigma70Consensus> Snapshot()
+    {
+        HashMap<String, Sigma70Consensus> consensus = new HashMap<String, Sigma70Consensus>();
+        int[][] _35Count = new int[BOX][4];
+        int[][] _10Count = new int[BOX][4];
+        for (Map.Entry<String, Integer> entry : slots.entrySet())
+        {
+            int at = entry.getValue() * STRIDE;
+            int predictions = 0, gapTotal = 0;
+            for (int[] counts : _35Count)
+                Arrays.fill(counts, 0);
+            for (int[] counts : _10Count)
+                Arrays.fill(counts, 0);
+            for (AtomicIntegerArray stripe : stripes)
+            {
+                predictions += stripe.get(at + PREDICTIONS);
+                gapTotal += stripe.get(at + GAP);
+                for (int i = 0; i < 4 * BOX; i++)
+                {
+                    _35Count[i / 4][i % 4] += stripe.get(at + MINUS35 + i);
+                    _10Count[i / 4][i % 4] += stripe.get(at + MINUS10 + i);
+                }
+            }
+            Sigma70Consensus sum = new Sigma70Consensus();
+            sum.addCounts(predictions, gapTotal, _35Count, _10Count);
+            consensus.put(entry.getKey(), sum);
+        }
+        return consensus;
+    }
+
+    private static void Add(AtomicIntegerArray stripe, int at, Sigma70Match match)
+    {
+        stripe.getAndIncrement(at + PREDICTIONS);
+        stripe.getAndAdd(at + GAP, match.spacer);
+        for (int pos = 0; pos < match.minus35.length; pos++)
+            stripe.getAndIncrement(at + MINUS35 + 4 * pos + match.minus35[pos]);
+        for (int pos = 0; pos < match.minus10.length; pos++)
+            stripe.getAndIncrement(at + MINUS10 + 4 * pos + match.minus10[pos]);
+    }
+}
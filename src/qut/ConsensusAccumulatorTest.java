@@ -0,0 +1,53 @@
+package qut;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ConsensusAccumulatorTest {
+    @Test
+    void MatchesSequentialCounts() throws InterruptedException {
+        List<String> names = Arrays.asList("fixB", "carA", "caiF");
+        Random random = new Random(17);
+        List<Sigma70Match> matches = new ArrayList<>();
+        for (int i = 0; i < 40000; i++) {
+            byte[] minus35 = new byte[6];
+            byte[] minus10 = new byte[6];
+            for (int pos = 0; pos < 6; pos++) {
+                minus35[pos] = (byte) random.nextInt(4);
+                minus10[pos] = (byte) random.nextInt(4);
+            }
+            matches.add(new Sigma70Match(0, 14 + random.nextInt(7), 0.8, minus35, minus10));
+        }
+
+        HashMap<String, Sigma70Consensus> expected = new HashMap<>();
+        for (String name : names)
+            expected.put(name, new Sigma70Consensus());
+        expected.put("all", new Sigma70Consensus());
+        for (int i = 0; i < matches.size(); i++) {
+            expected.get(names.get(i % names.size())).addMatch(matches.get(i));
+            expected.get("all").addMatch(matches.get(i));
+        }
+
+        // far more threads than stripes, all adding at once
+        ConsensusAccumulator accumulator = new ConsensusAccumulator(names);
+        Thread[] threads = new Thread[32];
+        for (int t = 0; t < threads.length; t++) {
+            int first = t;
+            threads[t] = new Thread(() -> {
+                for (int i = first; i < matches.size(); i += threads.length)
+                    accumulator.addMatch(names.get(i % names.size()), matches.get(i));
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        HashMap<String, Sigma70Consensus> actual = accumulator.Snapshot();
+        assertEquals(expected.keySet(), actual.keySet());
+        for (String name : expected.keySet())
+            assertEquals(expected.get(name).toString(), actual.get(name).toString());
+    }
+}
@@ -0,0 +1,223 @@
+package qut;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * How a PromoterPipeline spreads its work over threads. The pool
+ * strategies read the files in turn on the calling thread and hand out
+ * each record's genes in blocks of PromoterPipeline.BLOCK as they are
+ * read; the per-file strategy gives every file a thread of its own.
+ * Whatever the strategy, the consensus is the same.
+ */
+public abstract class ExecutionStrategy
+{
+    private final String name;
+
+    protected ExecutionStrategy(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * Processes every record of the files, returning once all are done.
+     */
+    public abstract void Execute(PromoterPipeline pipeline, List<String> files) throws IOException, InterruptedException;
+
+    @Override
+    public String toString()
+    {
+        return name;
+    }
+
+    /**
+     * Everything on the calling thread, a record at a time.
+     */
+    public static ExecutionStrategy Sequential()
+    {
+        return new ExecutionStrategy("sequential")
+        {
+            public void Execute(PromoterPipeline pipeline, List<String> files) throws IOException
+            {
+                for (String filename : files)
+                    pipeline.ProcessFile(filename);
+            }
+        };
+    }
+
+    /**
+     * The blocks of each record as a parallel stream, in a fork-join pool
+     * of the given parallelism.
+     */
+    public static ExecutionStrategy ForkJoin(int threads)
+    {
+        return new ExecutionStrategy("forkjoin(" + threads + ")")
+        {
+            public void Execute(PromoterPipeline pipeline, List<String> files) throws IOException, InterruptedException
+            {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                try {
+                    List<Future<?>> records = new ArrayList<>();
+                    ReadRecords(pipeline, files, record -> records.add(pool.submit(() ->
+                            IntStream.range(0, Blocks(record)).parallel().forEach(block -> ProcessBlock(pipeline, record, block)))));
+                    Wait(records);
+                } finally {
+                    pool.shutdown();
+                }
+            }
+        };
+    }
+
+    /**
+     * Every block as a task for a fixed pool of threads.
+     */
+    public static ExecutionStrategy FixedPool(int threads)
+    {
+        return new ExecutionStrategy("fixed(" + threads + ")")
+        {
+            public void Execute(PromoterPipeline pipeline, List<String> files) throws IOException, InterruptedException
+            {
+                Submit(Executors.newFixedThreadPool(threads), pipeline, files);
+            }
+        };
+    }
+
+    /**
+     * Every block as a virtual thread of its own.
+     */
+    public static ExecutionStrategy VirtualThreads()
+    {
+        return new ExecutionStrategy("virtual")
+        {
+            public void Execute(PromoterPipeline pipeline, List<String> files) throws IOException, InterruptedException
+            {
+                Submit(Executors.newVirtualThreadPerTaskExecutor(), pipeline, files);
+            }
+        };
+    }
+
+    /**
+     * A platform thread per file, as ExplicitThreading started them.
+     */
+    public static ExecutionStrategy PerFileThreads()
+    {
+        return new ExecutionStrategy("perfile")
+        {
+            public void Execute(PromoterPipeline pipeline, List<String> files) throws IOException, InterruptedException
+            {
+                List<FutureTask<Void>> tasks = new ArrayList<>();
+                for (int i = 0; i < files.size(); i++)
+                {
+                    String filename = files.get(i);
+                    FutureTask<Void> task = new FutureTask<>(() -> {
+                        pipeline.ProcessFile(filename);
+                        return null;
+                    });
+                    Thread thread = new Thread(task);
+                    thread.setName("Thread-" + (i + 1));
+                    thread.start();
+                    tasks.add(task);
+                }
+                Wait(tasks);
+            }
+        };
+    }
+
+    /**
+     * The strategy of a name: sequential, forkjoin, fixed, virtual, perfile,
+     * structured (which needs --enable-preview) or pipelined (with queues
+     * of -Dqut.queue places, four per thread by default).
+     */
+    public static ExecutionStrategy Named(String name, int threads)
+    {
+        switch (name)
+        {
+            case "sequential": return Sequential();
+            case "forkjoin": return ForkJoin(threads);
+            case "fixed": return FixedPool(threads);
+            case "virtual": return VirtualThreads();
+            case "perfile": return PerFileThreads();
+            case "structured": return StructuredStrategy.Create(threads);
+            case "pipelined": return new PipelinedStrategy(threads, Integer.getInteger("qut.queue", 4 * threads));
+            default: throw new IllegalArgumentException("Unknown execution strategy: " + name);
+        }
+    }
+
+    /**
+     * The strategy named by -Dqut.strategy (sequential by default), with
+     * -Dqut.threads threads (one per core by default).
+     */
+    public static ExecutionStrategy Configured()
+    {
+        return Named(System.getProperty("qut.strategy", "sequential"),
+                Integer.getInteger("qut.threads", Runtime.getRuntime().availableProcessors()));
+    }
+
+    // Submits every block of every record to an executor, waits for them all and shuts it down
+    private static void Submit(java.util.concurrent.ExecutorService executor, PromoterPipeline pipeline, List<String> files)
+            throws IOException, InterruptedException
+    {
+        try {
+            List<Future<?>> blocks = new ArrayList<>();
+            ReadRecords(pipeline, files, record -> {
+                for (int block = 0; block < Blocks(record); block++)
+                {
+                    int b = block;
+                    blocks.add(executor.submit(() -> ProcessBlock(pipeline, record, b)));
+                }
+            });
+            Wait(blocks);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // Reads the records of the files in turn on the calling thread
+    private static void ReadRecords(PromoterPipeline pipeline, List<String> files, Consumer<GenbankRecord> action) throws IOException
+    {
+        for (String filename : files)
+        {
+            System.out.println(filename);
+            try (GenbankReader reader = new GenbankReader(filename))
+            {
+                for (GenbankRecord record = pipeline.Next(reader); record != null; record = pipeline.Next(reader))
+                    action.accept(record);
+            }
+        }
+    }
+
+    private static int Blocks(GenbankRecord record)
+    {
+        return (record.genes.size() + PromoterPipeline.BLOCK - 1) / PromoterPipeline.BLOCK;
+    }
+
+    private static void ProcessBlock(PromoterPipeline pipeline, GenbankRecord record, int block)
+    {
+        int from = block * PromoterPipeline.BLOCK;
+        pipeline.ProcessGenes(record, from, Math.min(record.genes.size(), from + PromoterPipeline.BLOCK));
+    }
+
+    // Waits for every task, then rethrows the first failure as the pipeline would have thrown it
+    private static void Wait(List<? extends Future<?>> tasks) throws IOException, InterruptedException
+    {
+        Throwable failure = null;
+        for (Future<?> task : tasks)
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                if (failure == null)
+                    failure = e.getCause();
+            }
+        if (failure instanceof IOException)
+            throw (IOException) failure;
+        if (failure instanceof RuntimeException)
+            throw (RuntimeException) failure;
+        if (failure instanceof Error)
+            throw (Error) failure;
+        if (failure != null)
+            throw new IOException(failure);
+    }
+}
@@ -0,0 +1,346 @@
+package qut;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary snapshot of the records parsed from a GenBank file, so that runs
+ * after the first need not parse the text again. A snapshot is written to
+ * the cache directory (-Dqut.cache; there is none by default) while
+ * GenbankReader parses a file, and mapped on later runs for as long as the
+ * file keeps its path, size and modification time, and the CRC32C of a few
+ * samples of it. Translations are interned straight from the mapping, so
+ * only the first gene with a translation copies it.
+ *
+ * Everything is little-endian, and every section starts on an 8-byte
+ * boundary. After the header, each record holds its size in bytes, its
+ * counts, then columns:
+ * <pre>
+ *   bases          the words of the packed NucleotideSequence, 2 bits a base
+ *   exceptions     its exception positions, then their bytes
+ *   strands        a byte per gene
+ *   locations      an int per gene
+ *   name ends      an int per gene, into the names
+ *   sequence ends  an int per gene, into the translations
+ *   names, translations
+ * </pre>
+ */
+public class GenbankCache implements Closeable
+{
+    private static final int MAGIC = 0x43424751; // "QGBC"
+    private static final int VERSION = 2;
+    private static final int SAMPLE = 1 << 16;
+    private static final int WINDOW = 1 << 28;
+
+    private final FileChannel channel;
+    private final long size;
+    private int records;
+    private long offset;
+    private long windowStart;
+    private ByteBuffer window;
+
+    private GenbankCache(FileChannel channel, long size, long offset, int records)
+    {
+        this.channel = channel;
+        this.size = size;
+        this.offset = offset;
+        this.records = records;
+    }
+
+    /**
+     * Directory snapshots go in, or null when caching is turned off.
+     */
+    public static Path Directory()
+    {
+        String directory = System.getProperty("qut.cache");
+        return directory == null || "off".equals(directory) ? null : Paths.get(directory);
+    }
+
+    /**
+     * Opens the snapshot of a file.
+     *
+     * @return the snapshot, or null if there is none or it is out of date
+     */
+    public static GenbankCache Open(Path directory, String file)
+    {
+        Path source = Paths.get(file).toAbsolutePath().normalize();
+        Path snapshot = directory.resolve(Name(source));
+        FileChannel channel = null;
+        try {
+            if (!Files.isRegularFile(snapshot))
+                return null;
+            channel = FileChannel.open(snapshot, StandardOpenOption.READ);
+            ByteBuffer header = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() < 36 || header.getInt() != MAGIC || header.getInt() != VERSION)
+                return Close(channel);
+            long sourceSize = header.getLong();
+            long modified = header.getLong();
+            int hash = header.getInt();
+            int records = header.getInt();
+            int pathLength = header.getInt();
+            if (records < 0 || pathLength < 0 || pathLength > header.remaining()
+                    || sourceSize != Files.size(source) || modified != Files.getLastModifiedTime(source).toMillis())
+                return Close(channel);
+            byte[] path = new byte[pathLength];
+            header.get(path);
+            if (!source.toString().equals(new String(path, StandardCharsets.UTF_8)) || hash != Hash(source))
+                return Close(channel);
+            return new GenbankCache(channel, channel.size(), Align(header.position()), records);
+        } catch (IOException | RuntimeException e) {
+            return Close(channel);
+        }
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @return the record, or null after the last one
+     */
+    public GenbankRecord Next() throws IOException
+    {
+        if (records == 0)
+            return null;
+        ByteBuffer in = Map(8);
+        long recordSize = in.getLong(in.position());
+        in = Map(recordSize);
+        int start = in.position();
+        in.getLong();
+        int length = in.getInt();
+        int exceptions = in.getInt();
+        int count = in.getInt();
+        in.getInt();
+
+        long[] words = new long[(length + 31) >>> 5];
+        in.slice(start + 24, 8 * words.length).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().get(words);
+        int at = start + 24 + 8 * words.length;
+        int[] exceptionPositions = new int[exceptions];
+        in.slice(at, 4 * exceptions).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(exceptionPositions);
+        byte[] exceptionBases = new byte[exceptions];
+        in.get(at + 4 * exceptions, exceptionBases);
+        at += Math.toIntExact(Align(5L * exceptions));
+
+        int strands = at;
+        int locations = strands + Align(count);
+        int nameEnds = locations + 4 * count;
+        int sequenceEnds = nameEnds + 4 * count;
+        int names = Align(sequenceEnds + 4 * count);
+        int nameBytes = count == 0 ? 0 : in.getInt(nameEnds + 4 * (count - 1));
+        int translations = names + nameBytes;
+        // one read of the name column, which the names are decoded from
+        byte[] nameColumn = new byte[nameBytes];
+        in.get(names, nameColumn);
+
+        GenbankRecord record = new GenbankRecord();
+        record.nucleotides = new NucleotideSequence(words, length, exceptionPositions, exceptionBases);
+        record.genes = new ArrayList<Gene>(count);
+        int nameStart = 0, sequenceStart = 0;
+        for (int i = 0; i < count; i++)
+        {
+            int nameEnd = in.getInt(nameEnds + 4 * i);
+            int sequenceEnd = in.getInt(sequenceEnds + 4 * i);
+            record.genes.add(new Gene(new String(nameColumn, nameStart, nameEnd - nameStart, StandardCharsets.UTF_8),
+                    in.get(strands + i), in.getInt(locations + 4 * i),
+                    PeptideSequence.Intern(in.slice(translations + sequenceStart, sequenceEnd - sequenceStart))));
+            nameStart = nameEnd;
+            sequenceStart = sequenceEnd;
+        }
+
+        offset += recordSize;
+        records--;
+        return record;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        window = null;
+        channel.close();
+    }
+
+    // The window, positioned at the current record, holding at least length bytes of it
+    private ByteBuffer Map(long length) throws IOException
+    {
+        if (offset + length > size || length > Integer.MAX_VALUE)
+            throw new IOException("GenBank cache is truncated");
+        if (window == null || offset + length > windowStart + window.limit())
+        {
+            windowStart = offset;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(Math.max(WINDOW, length), size - offset))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return window.position((int) (offset - windowStart));
+    }
+
+    /**
+     * Writes the snapshot of a file record by record to a temporary file,
+     * and moves it into place on Commit.
+     */
+    public static class Writer implements Closeable
+    {
+        private final Path source;
+        private final Path snapshot;
+        private final Path temporary;
+        private final FileChannel channel;
+        private final long sourceSize;
+        private final long modified;
+        private final int headerSize;
+        private int records;
+        private boolean committed;
+
+        public Writer(Path directory, String file) throws IOException
+        {
+            source = Paths.get(file).toAbsolutePath().normalize();
+            snapshot = directory.resolve(Name(source));
+            sourceSize = Files.size(source);
+            modified = Files.getLastModifiedTime(source).toMillis();
+            Files.createDirectories(directory);
+            temporary = Files.createTempFile(directory, snapshot.getFileName().toString(), ".tmp");
+            channel = FileChannel.open(temporary, StandardOpenOption.WRITE);
+            headerSize = Align(36 + source.toString().getBytes(StandardCharsets.UTF_8).length);
+            channel.position(headerSize);
+        }
+
+        public void Write(GenbankRecord record) throws IOException
+        {
+            NucleotideSequence bases = record.nucleotides.IsPacked() ? record.nucleotides
+                    : NucleotideSequence.Pack(record.nucleotides.bytes);
+            int length = bases.Length();
+            int exceptions = bases.exceptionPositions.length;
+
+            int count = record.genes.size();
+            byte[][] names = new byte[count][];
+            long nameBytes = 0, sequenceBytes = 0;
+            for (int i = 0; i < count; i++)
+            {
+                Gene gene = record.genes.get(i);
+                names[i] = gene.name.getBytes(StandardCharsets.UTF_8);
+                nameBytes += names[i].length;
+                sequenceBytes += gene.sequence.bytes.length;
+            }
+            long recordSize = 24 + 8L * bases.words.length + Align(5L * exceptions) + Align(count) + Align(12L * count)
+                    + Align(nameBytes + sequenceBytes);
+            if (recordSize > Integer.MAX_VALUE)
+                throw new IOException("GenBank record is too large to cache");
+
+            ByteBuffer out = ByteBuffer.allocate((int) recordSize).order(ByteOrder.LITTLE_ENDIAN);
+            out.putLong(recordSize).putInt(length).putInt(exceptions).putInt(count).putInt(0);
+            for (long word : bases.words)
+                out.putLong(word);
+            int at = out.position();
+            for (int position : bases.exceptionPositions)
+                out.putInt(position);
+            out.put(bases.exceptionBases);
+            out.position(at + (int) Align(5L * exceptions));
+
+            at = out.position();
+            for (Gene gene : record.genes)
+                out.put((byte) gene.strand);
+            out.position(at + Align(count));
+            for (Gene gene : record.genes)
+                out.putInt(gene.location);
+            int end = 0;
+            for (byte[] name : names)
+                out.putInt(end += name.length);
+            end = 0;
+            for (Gene gene : record.genes)
+                out.putInt(end += gene.sequence.bytes.length);
+            out.position(Align(out.position()));
+            for (byte[] name : names)
+                out.put(name);
+            for (Gene gene : record.genes)
+                out.put(gene.sequence.bytes);
+
+            out.clear();
+            while (out.hasRemaining())
+                channel.write(out);
+            records++;
+        }
+
+        /**
+         * Finishes the snapshot and moves it into place, unless the file
+         * changed while it was read.
+         */
+        public void Commit() throws IOException
+        {
+            if (Files.size(source) != sourceSize || Files.getLastModifiedTime(source).toMillis() != modified)
+                return;
+            byte[] path = source.toString().getBytes(StandardCharsets.UTF_8);
+            ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putLong(sourceSize).putLong(modified).putInt(Hash(source))
+                    .putInt(records).putInt(path.length).put(path);
+            header.clear();
+            while (header.hasRemaining())
+                channel.write(header, header.position());
+            channel.close();
+            Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+        }
+
+        /**
+         * Deletes the temporary file if the snapshot was never committed.
+         */
+        @Override
+        public void close() throws IOException
+        {
+            if (committed)
+                return;
+            channel.close();
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    // Snapshot name, from the CRC32 of the file's path
+    private static String Name(Path source)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(source.toString().getBytes(StandardCharsets.UTF_8));
+        return String.format("%08x.gbc", crc.getValue());
+    }
+
+    // CRC32C of the start, middle and end of a file, to catch a rewrite that kept its size and time
+    private static int Hash(Path source) throws IOException
+    {
+        CRC32C crc = new CRC32C();
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ))
+        {
+            long size = channel.size();
+            ByteBuffer sample = ByteBuffer.allocate(SAMPLE);
+            for (long at : new long[] { 0, size / 2 - SAMPLE / 2, size - SAMPLE })
+            {
+                sample.clear();
+                while (sample.hasRemaining() && channel.read(sample, Math.max(at, 0) + sample.position()) > 0)
+                    ;
+                crc.update(sample.flip());
+            }
+        }
+        return (int) crc.getValue();
+    }
+
+    private static int Align(int n)
+    {
+        return (n + 7) & ~7;
+    }
+
+    private static long Align(long n)
+    {
+        return (n + 7) & ~7L;
+    }
+
+    private static GenbankCache Close(FileChannel channel)
+    {
+        try {
+            if (channel != null)
+                channel.close();
+        } catch (IOException e) {
+        }
+        return null;
+    }
+}
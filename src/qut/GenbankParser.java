@@ -0,0 +1,503 @@
+package qut;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.*;
+
+/**
+ * Byte-level GenBank parser over a buffer, usually a memory-mapped file.
+ * Finds the same genes and bases as GenbankRecord.Parse and Gene.ParseGenes,
+ * but never makes a String of a line: CDS locations are read as numbers in
+ * place, translations are copied straight into their PeptideSequence and the
+ * ORIGIN bases into a single byte[] sized from the LOCUS line.
+ */
+public class GenbankParser
+{
+    private final ByteBuffer buffer;
+    private final int limit;
+    private final boolean last;
+    private int position;
+
+    // Current line, without its line break
+    private int lineStart;
+    private int lineEnd;
+
+    private byte[] scratch = new byte[4096];
+    private int expectedLength;
+
+    private static final int PARALLEL_BYTES = 1 << 20;
+
+    /**
+     * @param buffer bytes to parse, from its position to its limit
+     * @param last whether the input ends with the buffer; if not, a record
+     *             cut off by the end of the buffer is left for the next one
+     */
+    public GenbankParser(ByteBuffer buffer, boolean last)
+    {
+        this.buffer = buffer;
+        this.position = buffer.position();
+        this.limit = buffer.limit();
+        this.last = last;
+    }
+
+    /**
+     * Parses the first record of a file.
+     */
+    public static GenbankRecord Parse(String file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ))
+        {
+            if (channel.size() > Integer.MAX_VALUE) // beyond what one mapping can hold
+            {
+                GenbankRecord record = new GenbankRecord();
+                BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
+                record.Parse(reader);
+                reader.close();
+                return record;
+            }
+            GenbankRecord record = new GenbankParser(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), true).NextParallel();
+            return record != null ? record : new GenbankRecord();
+        }
+    }
+
+    /**
+     * Offset in the buffer of the first line not yet parsed.
+     */
+    public int Position()
+    {
+        return position;
+    }
+
+    /**
+     * Parses the next record.
+     *
+     * @return the record, or null if the buffer ends before its ORIGIN, or
+     *         before its closing "//" when it is not the last one
+     */
+    public GenbankRecord Next()
+    {
+        GenbankRecord record = new GenbankRecord();
+        expectedLength = 0;
+        if (!ParseFeatures(record.genes))
+            return null;
+
+        byte[] bases = ParseOrigin(expectedLength);
+        if (bases == null)
+            return null;
+        record.nucleotides = NucleotideSequence.Pack(bases);
+        return record;
+    }
+
+    /**
+     * Parses the next record like Next, but a record of a megabyte or more
+     * is split into chunks parsed on the common fork-join pool: its features
+     * at feature keys other than CDS, and its bases at line breaks.
+     *
+     * @return the record, or null if the buffer ends before its ORIGIN, or
+     *         before its closing "//" when it is not the last one
+     */
+    public GenbankRecord NextParallel()
+    {
+        return NextParallel(PARALLEL_BYTES, 0);
+    }
+
+    /**
+     * @param minimumBytes size under which a record is parsed serially
+     * @param chunkBytes size of the chunks, or 0 to make a few per worker
+     */
+    GenbankRecord NextParallel(int minimumBytes, int chunkBytes)
+    {
+        int start = position;
+        int origin = FindOrigin(start);
+        if (origin < 0)
+            return null;
+        int originEnd = LineEnd(origin);
+        int end = originEnd < limit ? FindEnd(originEnd + 1) : -1;
+        if (end < 0 && !last)
+            return null;
+        if (end < 0)
+            end = limit;
+        if (end - start < minimumBytes)
+            return Next();
+
+        if (chunkBytes <= 0)
+            chunkBytes = Math.max(1 << 16, (end - start) / (4 * ForkJoinPool.getCommonPoolParallelism()));
+
+        // Features, in chunks that start on a feature key line that is not a CDS:
+        // such a line is ignored by the serial parser, whether or not it ends a CDS
+        List<Integer> starts = new ArrayList<Integer>();
+        starts.add(start);
+        for (int at = start + chunkBytes; at < origin; at += chunkBytes)
+        {
+            int line = NextFeatureKey(Math.max(at, starts.get(starts.size() - 1) + 1), origin);
+            if (line < 0)
+                break;
+            starts.add(line);
+            at = line;
+        }
+        starts.add(origin);
+        List<List<Gene>> genes = IntStream.range(0, starts.size() - 1).parallel().mapToObj(k -> {
+            // each chunk also reads the line that starts the next, which ends its last CDS
+            GenbankParser chunk = new GenbankParser(Slice(starts.get(k), LineEnd(starts.get(k + 1))), true);
+            List<Gene> list = new ArrayList<Gene>();
+            chunk.ParseFeatures(list);
+            return list;
+        }).collect(Collectors.toList());
+
+        // Bases, in chunks of whole lines: count them all, then copy each chunk to its offset
+        List<Integer> lines = new ArrayList<Integer>();
+        int from = Math.min(originEnd + 1, end);
+        lines.add(from);
+        for (int at = from + chunkBytes; at < end; at += chunkBytes)
+        {
+            int line = LineEnd(at) + 1;
+            if (line >= end)
+                break;
+            lines.add(line);
+            at = line;
+        }
+        lines.add(end);
+        int[] offsets = new int[lines.size()];
+        int[] counts = IntStream.range(0, lines.size() - 1).parallel()
+                .map(k -> CopyBases(lines.get(k), lines.get(k + 1), null, 0)).toArray();
+        for (int k = 0; k < counts.length; k++)
+            offsets[k + 1] = offsets[k] + counts[k];
+        byte[] bases = new byte[offsets[counts.length]];
+        IntStream.range(0, counts.length).parallel()
+                .forEach(k -> CopyBases(lines.get(k), lines.get(k + 1), bases, offsets[k]));
+
+        GenbankRecord record = new GenbankRecord();
+        for (List<Gene> list : genes)
+            record.genes.addAll(list);
+        record.nucleotides = NucleotideSequence.Pack(bases);
+        position = Math.min(LineEnd(end) + 1, limit);
+        return record;
+    }
+
+    // Loops through all features(genes) until we come to ORIGIN marking start of DNA
+    private boolean ParseFeatures(List<Gene> genes)
+    {
+        while (true)
+        {
+            if (!NextLine())
+                return false;
+
+            int labelEnd = Math.min(lineStart + 20, lineEnd);
+            if (Label(labelEnd, "LOCUS"))
+                expectedLength = LocusLength();
+            else if (Label(labelEnd, "CDS"))
+            {
+                if (!ParseCDS(genes))
+                    return false;
+                // like Gene.ParseGenes, the line that ends a CDS is only checked for ORIGIN
+                labelEnd = Math.min(lineStart + 20, lineEnd);
+                if (Label(labelEnd, "ORIGIN"))
+                    return true;
+                continue;
+            }
+            if (Label(labelEnd, "ORIGIN"))
+                return true;
+        }
+    }
+
+    private boolean ParseCDS(List<Gene> genes)
+    {
+        int location;
+        int strand = 1;
+        String geneName = null, geneID = null;
+        int translationLength = -1;
+
+        int start = lineStart + 21;
+        int end = lineEnd;
+        if (StartsWith(start, end, "complement("))
+        {
+            start += 11;
+            end--;
+            strand = -1;
+        }
+
+        if (StartsWith(start, end, "join("))
+        {
+            start += 5;
+            end--;
+            location = Integer.MAX_VALUE;
+            for (int part = start; part < end; )
+            {
+                int partEnd = IndexOf(part, end, (byte) ',');
+                if (partEnd < 0)
+                    partEnd = end;
+                if (buffer.get(part) == '<')
+                {
+                    location = -1;
+                    break;
+                }
+                int separator = IndexOf(part, partEnd, (byte) '.');
+                location = Math.min(location, separator <= part ? -1 : ParseInt(part, separator));
+                part = partEnd + 1;
+            }
+            if (location == Integer.MAX_VALUE)
+                location = -1;
+        }
+        else if (start < end && buffer.get(start) == '<')
+            location = -1;
+        else
+        {
+            int separator = IndexOf(start, end, (byte) '.');
+            location = ParseInt(start, separator < 0 ? end : separator);
+        }
+
+        // loop through attributes of CDS (/db_xref, /translation, etc)
+        while (true)
+        {
+            if (!NextLine())
+                return false;
+            if (Trim(lineStart, Math.min(lineStart + 20, lineEnd)) != 0)
+                break; // we've come to the end of the CDS
+
+            int from = TrimStart(lineStart, lineEnd);
+            int to = TrimEnd(from, lineEnd);
+            if (StartsWith(from, to, "/gene=\""))
+                geneName = ToString(from + 7, to - 1);
+            else if (StartsWith(from, to, "/db_xref=\"GeneID:"))
+                geneID = ToString(from + 10, to - 1);
+            else if (StartsWith(from, to, "/translation="))
+            {
+                boolean last = buffer.get(to - 1) == '"';
+                translationLength = Append(0, from + 14, last ? to - 1 : to);
+                while (!last)
+                {
+                    if (!NextLine())
+                        return false;
+                    from = TrimStart(lineStart, lineEnd);
+                    to = TrimEnd(from, lineEnd);
+                    last = to > from && buffer.get(to - 1) == '"';
+                    translationLength = Append(translationLength, from, last ? to - 1 : to);
+                }
+            }
+        }
+        if (geneID != null && location > 0 && translationLength >= 0)
+            genes.add(new Gene(geneID + "(" + geneName + ")", strand, location,
+                    PeptideSequence.Intern(Arrays.copyOf(scratch, translationLength))));
+        return true;
+    }
+
+    // Bases of every line up to "//": columns 10-19, 21-30, ... as in GenbankRecord.Parse
+    private byte[] ParseOrigin(int expectedLength)
+    {
+        byte[] bases = new byte[expectedLength > 0 ? expectedLength : 1 << 16];
+        int length = 0;
+        while (true)
+        {
+            if (!NextLine())
+            {
+                if (!last)
+                    return null;
+                break;
+            }
+            if (StartsWith(lineStart, lineEnd, "//"))
+                break;
+
+            for (int i = lineStart + 10; i < lineEnd; i += 11)
+            {
+                int blockEnd = Math.min(i + 10, lineEnd);
+                if (length + blockEnd - i > bases.length)
+                    bases = Arrays.copyOf(bases, Math.max(bases.length * 2, length + blockEnd - i));
+                buffer.get(i, bases, length, blockEnd - i);
+                length += blockEnd - i;
+            }
+        }
+        return length == bases.length ? bases : Arrays.copyOf(bases, length);
+    }
+
+    // Sequence length from "LOCUS       NC_000913   4641652 bp ...", or 0 if there is none
+    private int LocusLength()
+    {
+        for (int i = lineStart; i + 3 <= lineEnd; i++)
+        {
+            if (StartsWith(i, lineEnd, " bp"))
+            {
+                int digits = i;
+                while (digits > lineStart && Character.isDigit(buffer.get(digits - 1)))
+                    digits--;
+                return digits < i ? ParseInt(digits, i) : 0;
+            }
+        }
+        return 0;
+    }
+
+    // Bases of the lines in [from, to), copied to bases at offset unless it is null
+    private int CopyBases(int from, int to, byte[] bases, int offset)
+    {
+        int length = 0;
+        for (int line = from; line < to; )
+        {
+            int end = LineEnd(line);
+            int next = end + 1;
+            if (end > line && buffer.get(end - 1) == '\r')
+                end--;
+            for (int i = line + 10; i < end; i += 11)
+            {
+                int blockEnd = Math.min(i + 10, end);
+                if (bases != null)
+                    buffer.get(i, bases, offset + length, blockEnd - i);
+                length += blockEnd - i;
+            }
+            line = next;
+        }
+        return length;
+    }
+
+    // Offset of the ORIGIN line from a line start on, or -1
+    private int FindOrigin(int from)
+    {
+        for (int line = from; line < limit; line = LineEnd(line) + 1)
+        {
+            int end = LineEnd(line);
+            int labelEnd = Math.min(line + 20, end);
+            int labelStart = TrimStart(line, labelEnd);
+            if (TrimEnd(labelStart, labelEnd) - labelStart == 6 && StartsWith(labelStart, labelEnd, "ORIGIN"))
+                return end < limit || last ? line : -1;
+        }
+        return -1;
+    }
+
+    // Offset of the first line from a line start on that starts with "//", or -1
+    private int FindEnd(int from)
+    {
+        for (int line = from; line < limit; line = LineEnd(line) + 1)
+            if (StartsWith(line, limit, "//"))
+                return LineEnd(line) < limit || last ? line : -1;
+        return -1;
+    }
+
+    // Offset of the first feature key line other than CDS in [from, to), or -1
+    private int NextFeatureKey(int from, int to)
+    {
+        int line = from;
+        while (line > 0 && buffer.get(line - 1) != '\n')
+            line++;
+        for (; line < to; line = LineEnd(line) + 1)
+        {
+            int labelEnd = Math.min(line + 20, LineEnd(line));
+            int labelStart = TrimStart(line, labelEnd);
+            int length = TrimEnd(labelStart, labelEnd) - labelStart;
+            if (length > 0 && !(length == 3 && StartsWith(labelStart, labelEnd, "CDS")))
+                return line;
+        }
+        return -1;
+    }
+
+    // Offset of the line break ending the line at from, or limit
+    private int LineEnd(int from)
+    {
+        int i = from;
+        while (i < limit && buffer.get(i) != '\n')
+            i++;
+        return i;
+    }
+
+    private ByteBuffer Slice(int from, int to)
+    {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(Math.min(to + 1, limit)).position(from);
+        return slice;
+    }
+
+    private boolean NextLine()
+    {
+        if (position >= limit)
+            return false;
+        lineStart = position;
+        int i = position;
+        while (i < limit && buffer.get(i) != '\n')
+            i++;
+        if (i == limit && !last) // the rest of the line is in the next buffer
+            return false;
+        position = i < limit ? i + 1 : i;
+        if (i > lineStart && buffer.get(i - 1) == '\r')
+            i--;
+        lineEnd = i;
+        return true;
+    }
+
+    private boolean Label(int labelEnd, String label)
+    {
+        int from = TrimStart(lineStart, labelEnd);
+        return TrimEnd(from, labelEnd) - from == label.length() && StartsWith(from, labelEnd, label);
+    }
+
+    private int Trim(int from, int to)
+    {
+        from = TrimStart(from, to);
+        return TrimEnd(from, to) - from;
+    }
+
+    // String.trim drops every character up to ' '
+    private int TrimStart(int from, int to)
+    {
+        while (from < to && (buffer.get(from) & 0xFF) <= ' ')
+            from++;
+        return from;
+    }
+
+    private int TrimEnd(int from, int to)
+    {
+        while (to > from && (buffer.get(to - 1) & 0xFF) <= ' ')
+            to--;
+        return to;
+    }
+
+    private boolean StartsWith(int from, int to, String prefix)
+    {
+        if (to - from < prefix.length())
+            return false;
+        for (int i = 0; i < prefix.length(); i++)
+            if (buffer.get(from + i) != prefix.charAt(i))
+                return false;
+        return true;
+    }
+
+    private int IndexOf(int from, int to, byte b)
+    {
+        for (int i = from; i < to; i++)
+            if (buffer.get(i) == b)
+                return i;
+        return -1;
+    }
+
+    private int ParseInt(int from, int to)
+    {
+        if (from >= to)
+            throw new NumberFormatException("Missing number at offset " + from);
+        int value = 0;
+        for (int i = from; i < to; i++)
+        {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9)
+                throw new NumberFormatException("Bad number at offset " + from);
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private int Append(int length, int from, int to)
+    {
+        if (to <= from)
+            return length;
+        if (length + to - from > scratch.length)
+            scratch = Arrays.copyOf(scratch, Math.max(scratch.length * 2, length + to - from));
+        buffer.get(from, scratch, length, to - from);
+        return length + to - from;
+    }
+
+    private String ToString(int from, int to)
+    {
+        byte[] bytes = new byte[Math.max(to - from, 0)];
+        buffer.get(from, bytes);
+        return new String(bytes);
+    }
+}
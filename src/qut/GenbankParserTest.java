@@ -0,0 +1,215 @@
+package qut;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class GenbankParserTest {
+    private static final String RECORD = String.join("\n",
+            "LOCUS       TEST                      75 bp    DNA     circular BCT 01-JAN-2020",
+            "FEATURES             Location/Qualifiers",
+            "     source          1..75",
+            "     gene            complement(join(30..40,5..20))",
+            "     CDS             complement(join(30..40,5..20))",
+            "                     /gene=\"joined\"",
+            "                     /db_xref=\"GeneID:1\"",
+            "                     /translation=\"MKVLAAGIVG",
+            "                     LLLA\"",
+            "     CDS             12..70",
+            "                     /gene=\"unreachable\"",
+            "                     /db_xref=\"GeneID:2\"",
+            "                     /translation=\"MSTOP\"",
+            "     gene            <1..30",
+            "     CDS             <1..30",
+            "                     /db_xref=\"GeneID:3\"",
+            "                     /translation=\"MPARTIAL\"",
+            "     gene            41..70",
+            "     CDS             41..70",
+            "                     /db_xref=\"GeneID:4\"",
+            "                     /translation=\"MNONAME\"",
+            "ORIGIN      ",
+            "        1 acgtacgtac gtacgtacgt acgtacgtac gtacgtacgt acgtacgtac gtacgtacgt",
+            "       61 acgtacgtac gtacg",
+            "//",
+            "");
+
+    @Test
+    void MatchesLineParser(@TempDir Path dir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        files.add(Files.write(dir.resolve("test.gbk"), RECORD.getBytes()));
+        files.add(Files.write(dir.resolve("crlf.gbk"), RECORD.replace("\n", "\r\n").getBytes()));
+        File ecoli = new File("./Ecoli");
+        if (ecoli.isDirectory())
+            for (File file : ecoli.listFiles())
+                files.add(file.toPath());
+
+        for (Path file : files) {
+            GenbankRecord expected = new GenbankRecord();
+            try (BufferedReader reader = new BufferedReader(new FileReader(file.toFile()))) {
+                expected.Parse(reader);
+            }
+            assertSameRecord(expected, GenbankParser.Parse(file.toString()));
+
+            // parallel mode forced on, with chunks from a line or so up to most of the record
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+            for (int chunk : new int[] { 1, 100, 1000, 1 << 16 })
+                assertSameRecord(expected, new GenbankParser(buffer, true).NextParallel(0, chunk));
+        }
+    }
+
+    @Test
+    void ReaderStreamsConcatenatedRecords(@TempDir Path dir) throws IOException {
+        byte[] records = (RECORD + RECORD + "\n" + RECORD).getBytes();
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzip)) {
+            out.write(records);
+        }
+        List<Path> files = new ArrayList<>();
+        files.add(Files.write(dir.resolve("test.gbff"), records));
+        files.add(Files.write(dir.resolve("test.gbff.gz"), gzip.toByteArray()));
+        files.add(Files.write(dir.resolve("test.gbff.bgz"), bgzf(records, 100)));
+
+        GenbankRecord expected = new GenbankRecord();
+        try (BufferedReader reader = new BufferedReader(new StringReader(RECORD))) {
+            expected.Parse(reader);
+        }
+
+        for (Path file : files) {
+            // windows far smaller than a record, so every record is cut off and read again
+            for (int window : new int[] { 64, 1000, 1 << 20 }) {
+                int count = 0;
+                try (GenbankReader reader = new GenbankReader(file.toString(), window)) {
+                    while (reader.hasNext()) {
+                        assertSameRecord(expected, reader.next());
+                        count++;
+                    }
+                }
+                assertEquals(3, count, file.toString());
+            }
+            try (Stream<GenbankRecord> stream = GenbankReader.Records(file.toString())) {
+                assertEquals(3, stream.parallel().count());
+            }
+        }
+    }
+
+    @Test
+    void ReaderLoadsSnapshot(@TempDir Path dir) throws IOException {
+        // a base outside acgt, and bases not filling their last packed byte
+        String record = RECORD.replace("acgtacgtac gtacg\n", "acgtNcgtac gtacgt\n").replace("75 bp", "76 bp");
+        Path file = Files.write(dir.resolve("test.gbff"), (record + record).getBytes());
+        Path cache = dir.resolve("cache");
+
+        GenbankRecord expected = new GenbankRecord();
+        try (BufferedReader reader = new BufferedReader(new StringReader(record))) {
+            expected.Parse(reader);
+        }
+
+        for (int run = 0; run < 3; run++) {
+            if (run == 2) // a changed file is parsed again
+                Files.write(file, record.getBytes());
+            int count = 0;
+            try (GenbankReader reader = new GenbankReader(file.toString(), 1 << 20, cache)) {
+                while (reader.hasNext()) {
+                    assertSameRecord(expected, reader.next());
+                    count++;
+                }
+            }
+            assertEquals(run == 2 ? 1 : 2, count);
+            try (GenbankCache snapshot = GenbankCache.Open(cache, file.toString())) {
+                assertNotNull(snapshot);
+            }
+        }
+    }
+
+    @Test
+    void SnapshotNoticesRewrite(@TempDir Path dir) throws IOException {
+        Path file = Files.write(dir.resolve("test.gbk"), RECORD.getBytes());
+        Path cache = dir.resolve("cache");
+        try (GenbankReader reader = new GenbankReader(file.toString(), 1 << 20, cache)) {
+            while (reader.hasNext())
+                reader.next();
+        }
+        // the same size and time, but other bases
+        FileTime modified = Files.getLastModifiedTime(file);
+        Files.write(file, RECORD.replace("acgtacgtac", "tttttttttt").getBytes());
+        Files.setLastModifiedTime(file, modified);
+        assertNull(GenbankCache.Open(cache, file.toString()));
+    }
+
+    @Test
+    void ReaderLeavesNothingOfUnreadableFile(@TempDir Path dir) throws IOException {
+        Path cache = dir.resolve("cache");
+        Files.createDirectories(cache);
+        // a gzip magic number with no gzip stream behind it
+        Path file = Files.write(dir.resolve("broken.gbk.gz"), new byte[] { 31, (byte) 139, 0, 0 });
+        assertThrows(IOException.class, () -> new GenbankReader(file.toString(), 1 << 20, cache));
+        assertThrows(NoSuchFileException.class, () -> new GenbankReader(dir.resolve("missing.gbk").toString(), 1 << 20, cache));
+        try (Stream<Path> files = Files.list(cache)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void BgzfRejectsBlockTooSmallForItsHeader() {
+        // BC says 20 bytes in all, less than the 18 of the header and extra field and the 8 after the data
+        byte[] block = { 31, (byte) 139, 8, 4, 0, 0, 0, 0, 0, (byte) 255, 6, 0, 'B', 'C', 2, 0, 19, 0, 3, 0 };
+        IOException e = assertThrows(IOException.class,
+                () -> new BgzfInputStream(new ByteArrayInputStream(block)).read(new byte[16], 0, 16));
+        assertEquals("Corrupt BGZF block", e.getMessage());
+    }
+
+    // BGZF as bgzip writes it: a gzip member per block, with the block size in a "BC" extra field
+    private static byte[] bgzf(byte[] data, int blockSize) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int at = 0; at <= data.length; at += blockSize) {
+            int n = Math.min(blockSize, data.length - at);
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            deflater.setInput(data, at, n);
+            deflater.finish();
+            byte[] deflated = new byte[n + 64];
+            int length = deflater.deflate(deflated);
+            deflater.end();
+            CRC32 crc = new CRC32();
+            crc.update(data, at, n);
+            int size = 18 + length + 8 - 1;
+            out.write(new byte[] { 31, (byte) 139, 8, 4, 0, 0, 0, 0, 0, (byte) 255, 6, 0,
+                    'B', 'C', 2, 0, (byte) size, (byte) (size >> 8) }, 0, 18);
+            out.write(deflated, 0, length);
+            for (long value : new long[] { crc.getValue(), n })
+                for (int shift = 0; shift < 32; shift += 8)
+                    out.write((int) (value >> shift));
+        }
+        return out.toByteArray();
+    }
+
+    private static void assertSameRecord(GenbankRecord expected, GenbankRecord actual) {
+        assertArrayEquals(expected.nucleotides.Bytes(), actual.nucleotides.Bytes());
+        assertEquals(expected.genes.size(), actual.genes.size());
+        for (int i = 0; i < expected.genes.size(); i++) {
+            Gene a = expected.genes.get(i);
+            Gene b = actual.genes.get(i);
+            assertEquals(a.name, b.name);
+            assertEquals(a.strand, b.strand);
+            assertEquals(a.location, b.location);
+            assertArrayEquals(a.sequence.bytes, b.sequence.bytes);
+        }
+    }
+}
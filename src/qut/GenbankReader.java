@@ -0,0 +1,294 @@
+package qut;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Streams the records of a GenBank flat file one at a time, so that
+ * concatenated files (.gbff) with thousands of records need not be split on
+ * disk first. The file is mapped a window at a time and parsed with
+ * GenbankParser; a record cut off by the end of a window is parsed again from
+ * a window that starts with it, so only the records handed out and one
+ * window of the file are ever in memory.
+ *
+ * Gzipped files are recognised by their first bytes and read through a
+ * window on the inflated stream instead; BGZF files are inflated in parallel
+ * by BgzfInputStream.
+ *
+ * Files read to the end are snapshotted in GenbankCache, and read from
+ * their snapshot instead while it is up to date.
+ */
+public class GenbankReader implements Iterator<GenbankRecord>, Closeable
+{
+    private static final int WINDOW = 1 << 28;
+
+    private final FileChannel channel;
+    private final long size;
+    private int windowSize;
+    private long windowStart;
+
+    // Inflated input and its current window, when the file is compressed
+    private final InputStream stream;
+    private byte[] chunk;
+    private int filled;
+
+    private final GenbankCache cache;
+    private GenbankCache.Writer writer;
+
+    private GenbankParser parser;
+    private boolean last;
+    private GenbankRecord next;
+
+    public GenbankReader(String file) throws IOException
+    {
+        this(file, WINDOW, GenbankCache.Directory());
+    }
+
+    GenbankReader(String file, int windowSize) throws IOException
+    {
+        this(file, windowSize, null);
+    }
+
+    /**
+     * @param cacheDirectory where snapshots are kept, or null to always parse
+     */
+    GenbankReader(String file, int windowSize, Path cacheDirectory) throws IOException
+    {
+        cache = cacheDirectory == null ? null : GenbankCache.Open(cacheDirectory, file);
+        if (cache != null)
+        {
+            channel = null;
+            size = 0;
+            stream = null;
+            return;
+        }
+        channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+        InputStream inflated = null;
+        try
+        {
+            size = channel.size();
+            this.windowSize = windowSize;
+
+            byte[] header = new byte[16];
+            int length = Math.max(channel.read(ByteBuffer.wrap(header), 0), 0);
+            if (length >= 2 && (header[0] & 0xFF) == 0x1f && (header[1] & 0xFF) == 0x8b)
+            {
+                InputStream in = inflated = Files.newInputStream(Paths.get(file));
+                inflated = BgzfInputStream.IsBgzf(header, length) ? new BgzfInputStream(in) : new GZIPInputStream(in, 1 << 16);
+            }
+            stream = inflated;
+            if (stream != null)
+            {
+                chunk = new byte[Math.min(windowSize, 1 << 24)];
+                Fill(0);
+            }
+            else
+                Map(0);
+
+            // Only once the file is open and readable, so a file that is
+            // not leaves no temporary snapshot behind
+            if (cacheDirectory != null)
+            {
+                try {
+                    writer = new GenbankCache.Writer(cacheDirectory, file);
+                } catch (IOException e) {
+                    System.err.println("Not caching " + file + ": " + e);
+                }
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            for (Closeable opened : new Closeable[] { writer, inflated, channel })
+            {
+                try {
+                    if (opened != null)
+                        opened.close();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Streams the records of a file; closing the stream closes the file.
+     */
+    public static Stream<GenbankRecord> Records(String file) throws IOException
+    {
+        GenbankReader reader = new GenbankReader(file);
+        return StreamSupport.stream(reader.spliterator(), false).onClose(() -> {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        if (next == null)
+        {
+            try {
+                next = Read();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public GenbankRecord next()
+    {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        GenbankRecord record = next;
+        next = null;
+        return record;
+    }
+
+    /**
+     * Splits off small batches of records for parallel streams, instead of
+     * the thousand-record batches of Spliterators.spliteratorUnknownSize.
+     */
+    public Spliterator<GenbankRecord> spliterator()
+    {
+        return new Spliterators.AbstractSpliterator<GenbankRecord>(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL)
+        {
+            private int batch = 1;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super GenbankRecord> action)
+            {
+                if (!hasNext())
+                    return false;
+                action.accept(next());
+                return true;
+            }
+
+            @Override
+            public Spliterator<GenbankRecord> trySplit()
+            {
+                List<GenbankRecord> records = new ArrayList<GenbankRecord>();
+                while (records.size() < batch && hasNext())
+                    records.add(next());
+                if (records.isEmpty())
+                    return null;
+                batch = Math.min(batch * 2, 64);
+                return Spliterators.spliterator(records, Spliterator.ORDERED | Spliterator.NONNULL);
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (cache != null)
+        {
+            cache.close();
+            return;
+        }
+        if (writer != null)
+            writer.close();
+        if (stream != null)
+            stream.close();
+        channel.close();
+    }
+
+    private GenbankRecord Read() throws IOException
+    {
+        if (cache != null)
+            return cache.Next();
+        while (true)
+        {
+            int start = parser.Position();
+            GenbankRecord record = parser.NextParallel();
+            if (record != null || last)
+            {
+                Snapshot(record);
+                return record;
+            }
+
+            // The record runs past the window: start the next one at its
+            // first line, with a larger window if the record alone filled this one
+            if (stream != null)
+            {
+                Fill(start);
+                continue;
+            }
+            if (start == 0)
+            {
+                if (windowSize == Integer.MAX_VALUE)
+                    throw new IOException("GenBank record at offset " + windowStart + " is larger than 2 GB");
+                windowSize = (int) Math.min(windowSize * 2L, Integer.MAX_VALUE);
+            }
+            Map(windowStart + start);
+        }
+    }
+
+    // Adds a record to the snapshot, or finishes it at the end of the file
+    private void Snapshot(GenbankRecord record)
+    {
+        if (writer == null)
+            return;
+        try {
+            if (record != null)
+                writer.Write(record);
+            else
+            {
+                writer.Commit();
+                writer.close();
+                writer = null;
+            }
+        } catch (IOException e) {
+            System.err.println("Not caching: " + e);
+            try {
+                writer.close();
+            } catch (IOException ignored) {
+            }
+            writer = null;
+        }
+    }
+
+    // Keeps the chunk from start on and tops it up from the inflated stream
+    private void Fill(int start) throws IOException
+    {
+        System.arraycopy(chunk, start, chunk, 0, filled - start);
+        filled -= start;
+        if (filled == chunk.length)
+        {
+            if (chunk.length == Integer.MAX_VALUE)
+                throw new IOException("GenBank record is larger than 2 GB");
+            chunk = Arrays.copyOf(chunk, (int) Math.min(chunk.length * 2L, Integer.MAX_VALUE));
+        }
+        while (filled < chunk.length)
+        {
+            int n = stream.read(chunk, filled, chunk.length - filled);
+            if (n < 0)
+            {
+                last = true;
+                break;
+            }
+            filled += n;
+        }
+        parser = new GenbankParser(ByteBuffer.wrap(chunk, 0, filled), last);
+    }
+
+    private void Map(long offset) throws IOException
+    {
+        long length = Math.min(windowSize, size - offset);
+        windowStart = offset;
+        last = offset + length == size;
+        parser = new GenbankParser(channel.map(FileChannel.MapMode.READ_ONLY, offset, length), last);
+    }
+}
@@ -7,6 +7,17 @@ public class GenbankRecord
 {
     public NucleotideSequence nucleotides;
     public List<Gene> genes = new ArrayList<Gene>();
+    private PromoterIndex promoters;
+
+    /**
+     * All the promoters of the record's genome, indexed on first use.
+     */
+    public synchronized PromoterIndex Promoters()
+    {
+        if (promoters == null)
+            promoters = new PromoterIndex(nucleotides);
+        return promoters;
+    }
 
     public boolean Parse(BufferedReader reader) throws IOException
     {
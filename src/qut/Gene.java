@@ -19,7 +19,15 @@ public class Gene
         this.name = name;
         this.strand = strand;
         this.location = location;
-        this.sequence = new PeptideSequence(sequence);
+        this.sequence = PeptideSequence.Intern(sequence.getBytes());
+    }
+
+    public Gene(String name, int strand, int location, PeptideSequence sequence)
+    {
+        this.name = name;
+        this.strand = strand;
+        this.location = location;
+        this.sequence = sequence;
     }
 
     public static List<Gene> ParseGenes(BufferedReader reader) throws IOException
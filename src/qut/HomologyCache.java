@@ -0,0 +1,276 @@
+package qut;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Smith-Waterman scores kept from one run to the next, keyed by the
+ * fingerprint of the reference's QueryProfile (its peptide, the matrix and
+ * the gap penalties) and a hash of the target peptide, so that genes shared
+ * by many genomes are aligned once. HomologyScanner looks pairs up here
+ * before aligning them and stores the scores of the rest.
+ *
+ * The scores live in a memory-mapped file (the one -Dqut.homology.cache
+ * names; there is none by default) of a fixed size: sets of four slots, each set in a 128-byte line, and a key
+ * goes in the set its hashes pick, replacing the least recently used slot
+ * of a full set. A small LRU map in front holds the scores used most
+ * lately. Slots carry a check word, so one torn by a crash reads as empty.
+ * A file is used by one process at a time; others run without it. Closing
+ * the cache flushes and unmaps the file at once, rather than whenever the
+ * mapping is collected.
+ */
+public class HomologyCache implements Closeable
+{
+    private static final int MAGIC = 0x43484751; // "QGHC"
+    private static final int VERSION = 1;
+    private static final int HEADER = 128;
+    private static final int SLOT = 32, WAYS = 4, SET = SLOT * WAYS;
+    // Slot: reference fingerprint, target hash, score bits, last use, check word
+    private static final int REFERENCE = 0, TARGET = 8, SCORE = 16, STAMP = 20, CHECK = 24;
+    private static final int LOCKS = 256;
+
+    private final FileChannel channel;
+    private final FileLock fileLock;
+    private final MappedByteBuffer map;
+    private final int sets;
+    private final AtomicInteger clock;
+    private final Object[] locks = new Object[LOCKS];
+    private final Map<Key, Float> front;
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder();
+
+    /**
+     * Opens a cache file, making a new one if it is missing or was made
+     * for a different number of entries.
+     *
+     * @param entries scores the file holds, rounded up to a power of two sets of four
+     * @param frontEntries scores the in-memory LRU map holds
+     * @throws IOException if another process has the file open
+     */
+    public HomologyCache(Path file, int entries, int frontEntries) throws IOException
+    {
+        sets = Math.max(1, Integer.highestOneBit(Math.max(1, entries / WAYS - 1)) << 1);
+        long size = HEADER + (long) sets * SET;
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Homology cache of " + entries + " entries is too large");
+        if (file.getParent() != null)
+            Files.createDirectories(file.getParent());
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        try {
+            fileLock = channel.tryLock();
+            if (fileLock == null)
+                throw new IOException("Homology cache " + file + " is in use");
+            boolean valid = channel.size() == size;
+            map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            if (!valid || map.getInt(0) != MAGIC || map.getInt(4) != VERSION || map.getInt(8) != sets)
+            {
+                for (int at = 0; at < size; at += 8)
+                    map.putLong(at, 0);
+                map.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, sets);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        clock = new AtomicInteger(map.getInt(12));
+        for (int i = 0; i < LOCKS; i++)
+            locks[i] = new Object();
+        front = Collections.synchronizedMap(new LinkedHashMap<Key, Float>(16, 0.75f, true)
+        {
+            protected boolean removeEldestEntry(Map.Entry<Key, Float> eldest)
+            {
+                return size() > frontEntries;
+            }
+        });
+    }
+
+    /**
+     * Opens the cache file -Dqut.homology.cache names, holding
+     * -Dqut.homology.cache.entries scores (1M by default).
+     *
+     * @return the cache, which the caller closes, or null when the property
+     *         is unset or "off", or the file is in use by another process
+     */
+    public static HomologyCache Configured()
+    {
+        String file = System.getProperty("qut.homology.cache");
+        if (file == null || "off".equals(file))
+            return null;
+        try {
+            return new HomologyCache(Paths.get(file), Integer.getInteger("qut.homology.cache.entries", 1 << 20), 1 << 16);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Not caching homology scores: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Hash of a target peptide, never 0.
+     */
+    public static long Hash(byte[] peptide)
+    {
+        long hash = peptide.length * 0x9E3779B97F4A7C15L;
+        for (byte residue : peptide)
+            hash = (hash ^ residue) * 0x100000001B3L;
+        hash = Mix(hash);
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * The score of a target against a reference.
+     *
+     * @param reference the fingerprint of the reference's QueryProfile
+     * @param target the Hash of the target
+     * @return the score, or NaN if it is not cached
+     */
+    public float Get(long reference, long target)
+    {
+        Key key = new Key(reference, target);
+        Float score = front.get(key);
+        if (score != null)
+        {
+            hits.increment();
+            return score;
+        }
+        int set = Set(reference, target);
+        synchronized (locks[set & (LOCKS - 1)])
+        {
+            for (int way = 0; way < WAYS; way++)
+            {
+                int at = HEADER + set * SET + way * SLOT;
+                if (map.getLong(at + REFERENCE) == reference && map.getLong(at + TARGET) == target && Valid(at))
+                {
+                    map.putInt(at + STAMP, clock.incrementAndGet());
+                    float found = map.getFloat(at + SCORE);
+                    front.put(key, found);
+                    hits.increment();
+                    return found;
+                }
+            }
+        }
+        misses.increment();
+        return Float.NaN;
+    }
+
+    /**
+     * Keeps the score of a target against a reference.
+     */
+    public void Put(long reference, long target, float score)
+    {
+        front.put(new Key(reference, target), score);
+        int set = Set(reference, target);
+        int stamp = clock.incrementAndGet();
+        synchronized (locks[set & (LOCKS - 1)])
+        {
+            // the slot of the same key, else an empty one, else the least recently used
+            int victim = -1, empty = -1, oldest = -1;
+            for (int way = 0; way < WAYS && victim < 0; way++)
+            {
+                int at = HEADER + set * SET + way * SLOT;
+                if (!Valid(at))
+                {
+                    if (empty < 0)
+                        empty = at;
+                }
+                else if (map.getLong(at + REFERENCE) == reference && map.getLong(at + TARGET) == target)
+                    victim = at;
+                else if (oldest < 0 || map.getInt(at + STAMP) - map.getInt(oldest + STAMP) < 0)
+                    oldest = at;
+            }
+            if (victim < 0)
+                victim = empty >= 0 ? empty : oldest;
+            map.putLong(victim + REFERENCE, reference);
+            map.putLong(victim + TARGET, target);
+            map.putFloat(victim + SCORE, score);
+            map.putInt(victim + STAMP, stamp);
+            map.putInt(victim + CHECK, Check(reference, target, Float.floatToRawIntBits(score)));
+        }
+        map.putInt(12, stamp);
+    }
+
+    public long Hits()
+    {
+        return hits.sum();
+    }
+
+    public long Misses()
+    {
+        return misses.sum();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        map.putInt(12, clock.get());
+        map.force();
+        fileLock.release();
+        channel.close();
+        Unmap(map);
+    }
+
+    // Runs the buffer's cleaner now; the mapping must not be touched again
+    private static void Unmap(MappedByteBuffer buffer)
+    {
+        try {
+            Field field = Class.forName("sun.misc.Unsafe").getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+            unsafe.getClass().getMethod("invokeCleaner", ByteBuffer.class).invoke(unsafe, buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // left to the garbage collector
+        }
+    }
+
+    private int Set(long reference, long target)
+    {
+        return (int) Mix(reference * 31 + target) & (sets - 1);
+    }
+
+    // Whether a slot holds a whole entry; empty slots are all zero, and no check word is
+    private boolean Valid(int at)
+    {
+        return map.getInt(at + CHECK) == Check(map.getLong(at + REFERENCE), map.getLong(at + TARGET), map.getInt(at + SCORE));
+    }
+
+    private static int Check(long reference, long target, int score)
+    {
+        return (int) Mix(reference ^ Long.rotateLeft(target, 21) ^ ((long) score << 7)) | 1;
+    }
+
+    private static long Mix(long h)
+    {
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    private static final class Key
+    {
+        final long reference, target;
+
+        Key(long reference, long target)
+        {
+            this.reference = reference;
+            this.target = target;
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            return other instanceof Key && ((Key) other).reference == reference && ((Key) other).target == target;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Long.hashCode(reference * 31 + target);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package qut;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HomologyCacheTest {
+    @Test
+    void KeepsScoresAcrossRuns(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("homology.cache");
+        try (HomologyCache cache = new HomologyCache(file, 64, 4)) {
+            for (int i = 1; i <= 10000; i++)
+                cache.Put(i, -i, i / 2f);
+            assertEquals(10000 / 2f, cache.Get(10000, -10000));
+        }
+        try (HomologyCache cache = new HomologyCache(file, 64, 4)) {
+            int kept = 0;
+            for (int i = 1; i <= 10000; i++) {
+                float score = cache.Get(i, -i);
+                if (!Float.isNaN(score)) {
+                    assertEquals(i / 2f, score);
+                    kept++;
+                }
+            }
+            // bounded by the file, and the last ones stored are still there
+            assertTrue(kept <= 64, "kept " + kept);
+            assertEquals(10000 / 2f, cache.Get(10000, -10000));
+            assertTrue(Float.isNaN(cache.Get(1, 1)));
+        }
+        // a file made for another size starts over
+        try (HomologyCache cache = new HomologyCache(file, 1024, 4)) {
+            assertTrue(Float.isNaN(cache.Get(10000, -10000)));
+        }
+    }
+
+    @Test
+    void CachedScanMatchesAlignment(@TempDir Path dir) throws IOException {
+        List<ReferenceGene> references = PromoterPipeline.ParseReferenceGenes("./referenceGenes.list");
+        GenbankRecord record = new GenbankRecord();
+        Random random = new Random(5);
+        String acids = "ARNDCQEGHILKMFPSTWYV";
+        for (ReferenceGene reference : references)
+            for (int copy = 0; copy < 3; copy++) {
+                char[] mutant = new String(reference.sequence.bytes).toCharArray();
+                for (int k = 0; k < mutant.length; k++)
+                    if (random.nextInt(2 + copy) == 0)
+                        mutant[k] = acids.charAt(random.nextInt(acids.length()));
+                // not pooled, so every score comes from the cache or an alignment
+                record.genes.add(new Gene(reference.name + copy, 1, 1, new PeptideSequence(new String(mutant))));
+            }
+
+        HomologyHits expected = HomologyScanner.Scan(references, null, null, record, 2, record.genes.size());
+        try (HomologyCache cache = new HomologyCache(dir.resolve("homology.cache"), 1 << 10, 16)) {
+            for (int run = 0; run < 2; run++) {
+                HomologyHits actual = HomologyScanner.Scan(references, null, cache, record, 2, record.genes.size());
+                assertEquals(expected.size, actual.size);
+                for (int i = 0; i < expected.size; i++) {
+                    assertEquals(expected.references[i], actual.references[i]);
+                    assertEquals(expected.genes[i], actual.genes[i]);
+                    assertEquals(expected.scores[i], actual.scores[i]);
+                }
+            }
+            int pairs = references.size() * (record.genes.size() - 2);
+            assertArrayEquals(new long[] { pairs, pairs }, new long[] { cache.Hits(), cache.Misses() });
+        }
+    }
+
+    @Test
+    void PipelineClosesItsCache(@TempDir Path dir) throws IOException, InterruptedException {
+        // genes of its own, so no interned translation remembers a score from another test
+        PromoterPipelineTest.WriteFixture(dir, 21);
+        List<ReferenceGene> references = PromoterPipeline.ParseReferenceGenes(dir.resolve("referenceGenes.list").toString());
+        Path file = dir.resolve("homology.cache");
+        String genomes = dir.resolve("Ecoli").toString();
+
+        HomologyCache first = new HomologyCache(file, 1 << 12, 16);
+        HashMap<String, Sigma70Consensus> expected;
+        try (PromoterPipeline pipeline = new PromoterPipeline(references, first)) {
+            expected = pipeline.Run(genomes, ExecutionStrategy.Sequential());
+        }
+        assertEquals(0, first.Hits());
+
+        // the file is free again, and holds every score the first run made
+        HomologyCache second = new HomologyCache(file, 1 << 12, 16);
+        try (PromoterPipeline pipeline = new PromoterPipeline(references, second)) {
+            HashMap<String, Sigma70Consensus> actual = pipeline.Run(genomes, ExecutionStrategy.Sequential());
+            for (String name : expected.keySet())
+                assertEquals(expected.get(name).toString(), actual.get(name).toString(), name);
+        }
+        // interned translations may still remember theirs, but none is aligned again
+        assertTrue(first.Misses() > 0);
+        assertEquals(0, second.Misses());
+        try (HomologyCache cache = new HomologyCache(file, 1 << 12, 16)) {
+            for (String genome : PromoterPipeline.ListGenbankFiles(genomes))
+                try (GenbankReader reader = new GenbankReader(genome)) {
+                    while (reader.hasNext())
+                        for (Gene gene : reader.next().genes)
+                            for (ReferenceGene reference : references)
+                                assertFalse(Float.isNaN(cache.Get(reference.profile.fingerprint(),
+                                        HomologyCache.Hash(gene.sequence.bytes))), gene.name);
+                }
+        }
+    }
+}
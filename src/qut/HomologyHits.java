@@ -0,0 +1,29 @@
+package qut;
+
+import java.util.*;
+
+/**
+ * Homologous (reference, gene) pairs found in one record, kept in parallel
+ * arrays in the order they were found.
+ */
+public class HomologyHits
+{
+    public int size;
+    public int[] references = new int[16];
+    public int[] genes = new int[16];
+    public float[] scores = new float[16];
+
+    public void Add(int reference, int gene, float score)
+    {
+        if (size == references.length)
+        {
+            references = Arrays.copyOf(references, size * 2);
+            genes = Arrays.copyOf(genes, size * 2);
+            scores = Arrays.copyOf(scores, size * 2);
+        }
+        references[size] = reference;
+        genes[size] = gene;
+        scores[size] = score;
+        size++;
+    }
+}
@@ -0,0 +1,197 @@
+package qut;
+
+import jaligner.*;
+import java.util.*;
+
+/**
+ * Aligns every reference gene against every CDS of a record in one batch
+ * per reference, instead of one pair at a time. An optional SeedFilter in
+ * front skips the pairs without a seed hit, and an optional HomologyCache
+ * supplies the scores of pairs aligned before. Genes with the same
+ * translation are aligned once, and share the score: within a batch, and
+ * across records through the scores kept with pooled PeptideSequences.
+ * Only homologs need an exact score: each pair goes through
+ * SmithWatermanGotoh.alignsAbove first, which rules most out from an upper
+ * bound or part of the recurrence, and the rest are aligned in full. A pair
+ * ruled out is kept as BELOW in the memo and the cache, which is sound
+ * because the threshold is fixed.
+ */
+public class HomologyScanner
+{
+    public static final float THRESHOLD = 60;
+
+    // Kept in place of the score of a pair that cannot reach the threshold
+    static final float BELOW = Float.NEGATIVE_INFINITY;
+
+    public static HomologyHits Scan(List<ReferenceGene> references, GenbankRecord record)
+    {
+        return Scan(references, null, record);
+    }
+
+    public static HomologyHits Scan(List<ReferenceGene> references, SeedFilter filter, GenbankRecord record)
+    {
+        return Scan(references, filter, null, record, 0, record.genes.size());
+    }
+
+    /**
+     * Scans the CDSs from..to of a record only; the hits still number
+     * genes from the start of the record.
+     */
+    public static HomologyHits Scan(List<ReferenceGene> references, SeedFilter filter, HomologyCache cache,
+            GenbankRecord record, int from, int to)
+    {
+        return Scan(references, filter, cache, record, from, to, null);
+    }
+
+    /**
+     * Scans the CDSs from..to of a record, and counts in metrics, if there
+     * are any, how many pairs were aligned, took a score already known, or
+     * were skipped by the filter.
+     */
+    public static HomologyHits Scan(List<ReferenceGene> references, SeedFilter filter, HomologyCache cache,
+            GenbankRecord record, int from, int to, Metrics metrics)
+    {
+        if (filter == null)
+            return ScanAll(references, cache, record, from, to, metrics);
+
+        boolean[][] candidates = new boolean[to - from][references.size()];
+        for (int g = 0; g < candidates.length; g++)
+            filter.Candidates(record.genes.get(from + g).sequence, candidates[g]);
+
+        if (filter.mode == SeedFilter.Mode.VERIFY)
+        {
+            HomologyHits hits = ScanAll(references, cache, record, from, to, metrics);
+            for (int i = 0; i < hits.size; i++)
+                if (!candidates[hits.genes[i] - from][hits.references[i]])
+                    System.err.println("Prefilter missed homolog: " + references.get(hits.references[i]).name
+                            + " " + record.genes.get(hits.genes[i]).name + " score " + hits.scores[i]);
+            return hits;
+        }
+
+        HomologyHits hits = new HomologyHits();
+        long[] hashes = Hashes(cache, record, from, to);
+        int[] genes = new int[candidates.length];
+        long candidatePairs = 0, aligned = 0;
+        for (int r = 0; r < references.size(); r++)
+        {
+            int count = 0;
+            for (int g = 0; g < candidates.length; g++)
+                if (candidates[g][r])
+                    genes[count++] = from + g;
+            candidatePairs += count;
+            aligned += Score(references, r, cache, record, genes, count, hashes, from, hits);
+        }
+        Count(metrics, (long) references.size() * (to - from), candidatePairs, aligned);
+        return hits;
+    }
+
+    private static HomologyHits ScanAll(List<ReferenceGene> references, HomologyCache cache, GenbankRecord record, int from, int to,
+            Metrics metrics)
+    {
+        int[] genes = new int[to - from];
+        for (int i = 0; i < genes.length; i++)
+            genes[i] = from + i;
+        long[] hashes = Hashes(cache, record, from, to);
+
+        HomologyHits hits = new HomologyHits();
+        long aligned = 0;
+        for (int r = 0; r < references.size(); r++)
+            aligned += Score(references, r, cache, record, genes, genes.length, hashes, from, hits);
+        long pairs = (long) references.size() * genes.length;
+        Count(metrics, pairs, pairs, aligned);
+        return hits;
+    }
+
+    // Of all the pairs, those not filtered out were aligned or took a known score
+    private static void Count(Metrics metrics, long pairs, long candidatePairs, long aligned)
+    {
+        if (metrics == null)
+            return;
+        metrics.aligned.Add(aligned);
+        metrics.cached.Add(candidatePairs - aligned);
+        metrics.prefiltered.Add(pairs - candidatePairs);
+    }
+
+    // Scores reference r against the first count genes, the cached ones from the cache, adds the homologs to hits,
+    // and returns how many it aligned
+    private static int Score(List<ReferenceGene> references, int r, HomologyCache cache, GenbankRecord record,
+            int[] genes, int count, long[] hashes, int from, HomologyHits hits)
+    {
+        QueryProfile profile = references.get(r).profile;
+        float[] scores = new float[count];
+        int[] missing = new int[count];
+        int misses = 0;
+        // the first gene with each translation, which the others take their score from
+        int[] first = new int[count];
+        Map<PeptideSequence, Integer> distinct = new HashMap<PeptideSequence, Integer>();
+        for (int i = 0; i < count; i++)
+        {
+            PeptideSequence peptide = record.genes.get(genes[i]).sequence;
+            Integer seen = distinct.putIfAbsent(peptide, i);
+            first[i] = seen == null ? i : seen;
+            if (first[i] != i)
+                continue;
+            scores[i] = peptide.Score(profile.fingerprint());
+            if (Float.isNaN(scores[i]) && cache != null)
+            {
+                scores[i] = cache.Get(profile.fingerprint(), hashes[genes[i] - from]);
+                peptide.Score(profile.fingerprint(), scores[i]);
+            }
+            if (Float.isNaN(scores[i]))
+                missing[misses++] = i;
+        }
+
+        // align in full only the pairs that reach the threshold
+        int[] above = new int[misses];
+        int homologs = 0;
+        for (int m = 0; m < misses; m++)
+        {
+            int i = missing[m];
+            if (SmithWatermanGotoh.alignsAbove(profile, record.genes.get(genes[i]).sequence.bytes, THRESHOLD))
+                above[homologs++] = i;
+            else
+            {
+                scores[i] = BELOW;
+                Keep(profile, cache, record, genes[i], hashes, from, BELOW);
+            }
+        }
+
+        byte[][] targets = new byte[homologs][];
+        for (int m = 0; m < homologs; m++)
+            targets[m] = record.genes.get(genes[above[m]]).sequence.bytes;
+        float[] aligned = new float[homologs];
+        SmithWatermanGotoh.score(profile, targets, aligned);
+        for (int m = 0; m < homologs; m++)
+        {
+            scores[above[m]] = aligned[m];
+            Keep(profile, cache, record, genes[above[m]], hashes, from, aligned[m]);
+        }
+
+        for (int i = 0; i < count; i++)
+        {
+            scores[i] = scores[first[i]];
+            if (scores[i] >= THRESHOLD)
+                hits.Add(r, genes[i], scores[i]);
+        }
+        return misses;
+    }
+
+    // Remembers the score of a gene against a reference, with the peptide and in the cache
+    private static void Keep(QueryProfile profile, HomologyCache cache, GenbankRecord record, int gene,
+            long[] hashes, int from, float score)
+    {
+        record.genes.get(gene).sequence.Score(profile.fingerprint(), score);
+        if (cache != null)
+            cache.Put(profile.fingerprint(), hashes[gene - from], score);
+    }
+
+    private static long[] Hashes(HomologyCache cache, GenbankRecord record, int from, int to)
+    {
+        if (cache == null)
+            return null;
+        long[] hashes = new long[to - from];
+        for (int g = 0; g < hashes.length; g++)
+            hashes[g] = HomologyCache.Hash(record.genes.get(from + g).sequence.bytes);
+        return hashes;
+    }
+}
@@ -0,0 +1,274 @@
+package qut;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts and times of a PromoterPipeline's stages, cheap enough to leave
+ * on: counters are LongAdders, striped over threads, and a timer keeps a
+ * histogram of LongAdders, a bucket per quarter of a power of two of
+ * nanoseconds. Stages run once per gene time one event in
+ * -Dqut.metrics.sample (16) and count every one, so their totals are
+ * estimates; -Dqut.metrics=off turns the timers off altogether.
+ *
+ * A pipeline logs a line of its metrics to stderr every
+ * -Dqut.metrics.period seconds while it runs, and writes them as JSON to
+ * -Dqut.metrics.json when a run ends.
+ */
+public class Metrics
+{
+    private static final boolean ENABLED = !"off".equals(System.getProperty("qut.metrics"));
+    private static final int BUCKETS = 248;
+    private static final long NOT_TIMED = Long.MIN_VALUE;
+
+    public final Counter records = new Counter("records");
+    public final Counter genes = new Counter("genes");
+    // Gene and reference pairs: aligned, scored from a pooled translation or the homology cache, or skipped by the seed filter
+    public final Counter aligned = new Counter("pairs_aligned");
+    public final Counter cached = new Counter("pairs_cached");
+    public final Counter prefiltered = new Counter("pairs_prefiltered");
+    public final Counter homologs = new Counter("homologs");
+    public final Counter promoters = new Counter("promoters");
+
+    public final Timer parse = new Timer("parse", 1);
+    public final Timer align = new Timer("align", 1);
+    public final Timer upstream;
+    public final Timer search;
+    public final Timer accumulate;
+
+    private final long created = System.nanoTime();
+
+    public Metrics()
+    {
+        this(Integer.getInteger("qut.metrics.sample", 16));
+    }
+
+    /**
+     * @param sample one event in how many of the per-gene stages is timed
+     */
+    public Metrics(int sample)
+    {
+        upstream = new Timer("upstream", sample);
+        search = new Timer("search", sample);
+        accumulate = new Timer("accumulate", sample);
+    }
+
+    public static class Counter
+    {
+        public final String name;
+        private final LongAdder count = new LongAdder();
+
+        Counter(String name)
+        {
+            this.name = name;
+        }
+
+        public void Add(long n)
+        {
+            count.add(n);
+        }
+
+        public void Increment()
+        {
+            count.increment();
+        }
+
+        public long Sum()
+        {
+            return count.sum();
+        }
+    }
+
+    public static class Timer
+    {
+        public final String name;
+        private final int sample;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sampled = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+        Timer(String name, int sample)
+        {
+            if (sample < 1)
+                throw new IllegalArgumentException("Sample one event in at least 1");
+            this.name = name;
+            this.sample = sample;
+            for (int i = 0; i < BUCKETS; i++)
+                buckets[i] = new LongAdder();
+        }
+
+        /**
+         * Starts timing an event, which counts once it is stopped.
+         *
+         * @return the time to pass to Stop
+         */
+        public long Start()
+        {
+            if (!ENABLED || (sample > 1 && ThreadLocalRandom.current().nextInt(sample) != 0))
+                return NOT_TIMED;
+            return System.nanoTime();
+        }
+
+        public void Stop(long start)
+        {
+            count.increment();
+            if (start != NOT_TIMED)
+                Record(System.nanoTime() - start);
+        }
+
+        void Record(long elapsed)
+        {
+            sampled.increment();
+            nanos.add(elapsed);
+            max.accumulate(elapsed);
+            buckets[Bucket(elapsed)].increment();
+        }
+
+        public long Count()
+        {
+            return count.sum();
+        }
+
+        /**
+         * Mean of the timed events, in nanoseconds, or 0 if none was.
+         */
+        public double Mean()
+        {
+            long n = sampled.sum();
+            return n == 0 ? 0 : (double) nanos.sum() / n;
+        }
+
+        /**
+         * Estimated time of all the events, timed or not, in nanoseconds.
+         */
+        public double Total()
+        {
+            return Mean() * Count();
+        }
+
+        /**
+         * The time under which a fraction of the timed events took, in
+         * nanoseconds, to within an eighth.
+         */
+        public long Percentile(double fraction)
+        {
+            long n = sampled.sum(), rank = (long) Math.ceil(fraction * n), seen = 0;
+            if (n == 0)
+                return 0;
+            for (int i = 0; i < BUCKETS; i++)
+            {
+                seen += buckets[i].sum();
+                if (seen >= Math.max(1, rank))
+                    return Math.min(max.get(), (Lower(i) + Lower(i + 1)) / 2);
+            }
+            return max.get();
+        }
+
+        public long Max()
+        {
+            return max.get();
+        }
+    }
+
+    // Values under 4 have a bucket each; above, each power of two has four
+    static int Bucket(long nanos)
+    {
+        if (nanos < 4)
+            return (int) Math.max(0, nanos);
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        return 4 * (exponent - 1) + (int) ((nanos >>> (exponent - 2)) & 3);
+    }
+
+    static long Lower(int bucket)
+    {
+        if (bucket < 4)
+            return bucket;
+        return (long) (4 + bucket % 4) << (bucket / 4 - 1);
+    }
+
+    private List<Counter> Counters()
+    {
+        return Arrays.asList(records, genes, aligned, cached, prefiltered, homologs, promoters);
+    }
+
+    private List<Timer> Timers()
+    {
+        return Arrays.asList(parse, align, upstream, search, accumulate);
+    }
+
+    /**
+     * The counters, and the estimated total time of each stage, summed
+     * over the threads that ran it, on a line.
+     */
+    public String Summary()
+    {
+        StringBuilder line = new StringBuilder(String.format(Locale.ROOT, "Metrics at %.1fs:", (System.nanoTime() - created) / 1e9));
+        for (Counter counter : Counters())
+            line.append(' ').append(counter.name).append('=').append(counter.Sum());
+        for (Timer timer : Timers())
+            line.append(String.format(Locale.ROOT, " %s=%.3fs", timer.name, timer.Total() / 1e9));
+        return line.toString();
+    }
+
+    /**
+     * The counters, and the count, estimated total and sampled distribution
+     * of each stage's times in microseconds, as a JSON object.
+     */
+    public String ToJson()
+    {
+        StringBuilder json = new StringBuilder("{\n");
+        json.append(String.format(Locale.ROOT, "  \"elapsed_s\": %.3f,\n", (System.nanoTime() - created) / 1e9));
+        json.append("  \"counters\": {");
+        String separator = "\n";
+        for (Counter counter : Counters())
+        {
+            json.append(separator).append("    \"").append(counter.name).append("\": ").append(counter.Sum());
+            separator = ",\n";
+        }
+        json.append("\n  },\n  \"timers\": {");
+        separator = "\n";
+        for (Timer timer : Timers())
+        {
+            json.append(separator).append(String.format(Locale.ROOT,
+                    "    \"%s\": { \"count\": %d, \"sampled\": %d, \"total_s\": %.3f, \"mean_us\": %.3f, "
+                            + "\"p50_us\": %.3f, \"p90_us\": %.3f, \"p99_us\": %.3f, \"max_us\": %.3f }",
+                    timer.name, timer.Count(), timer.sampled.sum(), timer.Total() / 1e9, timer.Mean() / 1e3,
+                    timer.Percentile(0.5) / 1e3, timer.Percentile(0.9) / 1e3, timer.Percentile(0.99) / 1e3, timer.Max() / 1e3));
+            separator = ",\n";
+        }
+        return json.append("\n  }\n}\n").toString();
+    }
+
+    /**
+     * Logs the Summary to stderr every period seconds until closed; does
+     * nothing if period is 0.
+     */
+    public Closeable Report(long period)
+    {
+        if (period <= 0)
+            return () -> { };
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleAtFixedRate(() -> System.err.println(Summary()), period, period, TimeUnit.SECONDS);
+        return timer::shutdownNow;
+    }
+
+    /**
+     * Writes ToJson to the file -Dqut.metrics.json names, if it does.
+     */
+    public void Export() throws IOException
+    {
+        String file = System.getProperty("qut.metrics.json");
+        if (file != null)
+            Files.writeString(Paths.get(file), ToJson());
+    }
+}
@@ -0,0 +1,66 @@
+package qut;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MetricsTest {
+    @Test
+    void BucketsHoldTheirValues() {
+        for (long value : new long[] { 0, 1, 3, 4, 7, 8, 15, 1000, 123456789, Long.MAX_VALUE }) {
+            int bucket = Metrics.Bucket(value);
+            assertTrue(Metrics.Lower(bucket) <= value, value + " under bucket " + bucket);
+            if (bucket < 247)
+                assertTrue(value < Metrics.Lower(bucket + 1), value + " over bucket " + bucket);
+        }
+    }
+
+    @Test
+    void PercentilesWithinAnEighth() {
+        Metrics.Timer timer = new Metrics(1).search;
+        for (long nanos = 1; nanos <= 10000; nanos++)
+            timer.Record(nanos);
+        assertEquals(5000, timer.Percentile(0.5), 5000 / 8.0);
+        assertEquals(9900, timer.Percentile(0.99), 9900 / 8.0);
+        assertEquals(10000, timer.Max());
+        assertEquals(5000.5, timer.Mean(), 1e-9);
+    }
+
+    @Test
+    void SampledTimerCountsEveryEvent() {
+        Metrics.Timer timer = new Metrics(16).search;
+        for (int i = 0; i < 10000; i++)
+            timer.Stop(timer.Start());
+        assertEquals(10000, timer.Count());
+        // about one in 16 timed
+        assertTrue(timer.Max() > 0);
+    }
+
+    @Test
+    void PipelineCountsItsStages(@TempDir Path dir) throws IOException, InterruptedException {
+        // genes of its own, so that some pairs are aligned rather than remembered from another test
+        PromoterPipelineTest.WriteFixture(dir, 25);
+        Metrics metrics;
+        int references;
+        try (PromoterPipeline pipeline = new PromoterPipeline(dir.resolve("referenceGenes.list").toString())) {
+            pipeline.Run(dir.resolve("Ecoli").toString(), ExecutionStrategy.FixedPool(2));
+            metrics = pipeline.metrics;
+            references = pipeline.referenceGenes.size();
+        }
+        assertTrue(metrics.records.Sum() > 0);
+        assertEquals(metrics.records.Sum(), metrics.parse.Count());
+        // every pair is aligned, scored from a gene with the same translation, or filtered out
+        assertTrue(metrics.aligned.Sum() > 0);
+        assertEquals(metrics.genes.Sum() * references,
+                metrics.aligned.Sum() + metrics.cached.Sum() + metrics.prefiltered.Sum());
+        assertEquals(metrics.homologs.Sum(), metrics.search.Count());
+        assertEquals(metrics.promoters.Sum(), metrics.accumulate.Count());
+        assertTrue(metrics.promoters.Sum() > 0 && metrics.promoters.Sum() <= metrics.homologs.Sum());
+        assertTrue(metrics.ToJson().contains("\"promoters\": " + metrics.promoters.Sum()), metrics.ToJson());
+    }
+}
@@ -1,13 +1,34 @@
 package qut;
 
 import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.*;
 
 
+/**
+ * Bases of a DNA sequence, either one byte each in bytes, or, for whole
+ * genomes, packed two bits each (a=0 c=1 g=2 t=3) with any other bytes (N,
+ * IUPAC codes, upper case) kept in a sorted exception list. Packed sequences
+ * have a null bytes field and are read through Length, Unpack, Region and
+ * ReverseComplement, which work on either form.
+ */
 public class NucleotideSequence
 {
     public byte[] bytes;
 
-    private static byte[] complement = new byte['z'];
+    // Packed form: base i at bits 2*(i%32) of words[i/32]
+    long[] words;
+    int length;
+    int[] exceptionPositions;
+    byte[] exceptionBases;
+
+    private static byte[] complement = new byte[256];
+
+    private static final byte[] CODE = new byte[256];
+    private static final int[] BASES = new int[256]; // the four bases of each packed byte, as ASCII
+    private static final VarHandle INTS = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
 
     static
     {
@@ -15,8 +36,16 @@ public class NucleotideSequence
         complement['G'] = 'C'; complement['g'] = 'c';
         complement['T'] = 'A'; complement['t'] = 'a';
         complement['A'] = 'T'; complement['a'] = 't';
+
+        Arrays.fill(CODE, (byte) -1);
+        byte[] letters = { 'a', 'c', 'g', 't' };
+        for (int i = 0; i < 4; i++)
+            CODE[letters[i]] = (byte) i;
+        for (int b = 0; b < 256; b++)
+            for (int i = 0; i < 4; i++)
+                BASES[b] |= letters[(b >> 2 * i) & 3] << 8 * i;
     }
-    
+
     public NucleotideSequence()
     {
     }
@@ -24,34 +53,268 @@ public class NucleotideSequence
     public NucleotideSequence(byte[] sequence)
     {
         this.bytes = sequence;
-    }    
-    
+    }
+
     public NucleotideSequence(String string)
     {
         bytes = string.getBytes();
     }
-    
+
+    /**
+     * A packed sequence.
+     *
+     * @param words bases, 32 to a word, the unused bits of the last one zero
+     * @param length number of bases
+     * @param exceptionPositions ascending positions of bases that are not a, c, g or t
+     * @param exceptionBases the bytes at those positions
+     */
+    public NucleotideSequence(long[] words, int length, int[] exceptionPositions, byte[] exceptionBases)
+    {
+        this.words = words;
+        this.length = length;
+        this.exceptionPositions = exceptionPositions;
+        this.exceptionBases = exceptionBases;
+    }
+
+    /**
+     * Packs bases two bits each.
+     */
+    public static NucleotideSequence Pack(byte[] bases)
+    {
+        int length = bases.length;
+        long[] words = new long[(length + 31) >>> 5];
+        int exceptions = 0;
+        for (int i = 0; i < length; i++)
+        {
+            int code = CODE[bases[i] & 0xFF];
+            if (code < 0)
+                exceptions++;
+            else
+                words[i >>> 5] |= (long) code << ((i & 31) << 1);
+        }
+
+        int[] positions = new int[exceptions];
+        byte[] others = new byte[exceptions];
+        for (int i = 0, e = 0; e < exceptions; i++)
+            if (CODE[bases[i] & 0xFF] < 0)
+            {
+                positions[e] = i;
+                others[e++] = bases[i];
+            }
+        return new NucleotideSequence(words, length, positions, others);
+    }
+
+    public boolean IsPacked()
+    {
+        return bytes == null && words != null;
+    }
+
+    public int Length()
+    {
+        return bytes != null ? bytes.length : length;
+    }
+
+    /**
+     * Copies the bases from..to into the start of a buffer, such as one
+     * kept for pattern searches, unpacking them 32 at a time.
+     *
+     * @return the buffer
+     */
+    public byte[] Unpack(int from, int to, byte[] buffer)
+    {
+        Objects.checkFromToIndex(from, to, Length());
+        if (bytes != null)
+        {
+            System.arraycopy(bytes, from, buffer, 0, to - from);
+            return buffer;
+        }
+        int n = to - from;
+        int i = 0;
+        for (; i + 32 <= n; i += 32)
+        {
+            long window = Window(from + i);
+            Unpack(window, buffer, i);
+        }
+        if (i < n)
+        {
+            long window = Window(from + i);
+            for (int k = 0; i + k < n; k++)
+                buffer[i + k] = (byte) (BASES[(int) (window >>> 2 * k) & 3]);
+        }
+        for (int e = FirstException(from); e < exceptionPositions.length && exceptionPositions[e] < to; e++)
+            buffer[exceptionPositions[e] - from] = exceptionBases[e];
+        return buffer;
+    }
+
+    /**
+     * All the bases, one byte each.
+     */
+    public byte[] Bytes()
+    {
+        return bytes != null ? bytes : Unpack(0, length, new byte[length]);
+    }
+
+    /**
+     * The bases from..to, one byte each.
+     */
+    public NucleotideSequence Region(int from, int to)
+    {
+        Objects.checkFromToIndex(from, to, Length());
+        if (bytes != null)
+            return new NucleotideSequence(Arrays.copyOfRange(bytes, from, to));
+        return new NucleotideSequence(Unpack(from, to, new byte[to - from]));
+    }
+
+    /**
+     * The reverse complement of the bases from..to, one byte each; bytes
+     * other than a, c, g and t, in either case, complement to 0.
+     */
+    public NucleotideSequence ReverseComplement(int from, int to)
+    {
+        return new NucleotideSequence(ReverseComplement(from, to, new byte[to - from]));
+    }
+
+    /**
+     * Writes the reverse complement of the bases from..to into the start of
+     * a buffer. Packed bases are reversed and complemented 32 to a word.
+     *
+     * @return the buffer
+     */
+    public byte[] ReverseComplement(int from, int to, byte[] result)
+    {
+        Objects.checkFromToIndex(from, to, Length());
+        int n = to - from;
+        if (bytes != null)
+        {
+            for (int i = 0; i < n; i++)
+                result[i] = complement[bytes[to - 1 - i] & 0xFF];
+            return result;
+        }
+
+        int i = 0;
+        for (; i + 32 <= n; i += 32)
+        {
+            long window = ReverseComplement(Window(to - i - 32));
+            Unpack(window, result, i);
+        }
+        if (i < n)
+        {
+            long window = Window(from);
+            for (int k = 0; i + k < n; k++)
+                result[i + k] = (byte) BASES[3 - ((int) (window >>> 2 * (n - 1 - i - k)) & 3)];
+        }
+        for (int e = FirstException(from); e < exceptionPositions.length && exceptionPositions[e] < to; e++)
+            result[to - 1 - exceptionPositions[e]] = complement[exceptionBases[e] & 0xFF];
+        return result;
+    }
+
+    /**
+     * The base at a position, as its byte.
+     */
+    public byte ByteAt(int index)
+    {
+        if (bytes != null)
+            return bytes[index];
+        Objects.checkIndex(index, length);
+        if (exceptionPositions.length > 0)
+        {
+            int e = Arrays.binarySearch(exceptionPositions, index);
+            if (e >= 0)
+                return exceptionBases[e];
+        }
+        return (byte) BASES[(int) (words[index >>> 5] >>> ((index & 31) << 1)) & 3];
+    }
+
+    /**
+     * The complement of the base at a position, as ReverseComplement gives it.
+     */
+    public byte ComplementAt(int index)
+    {
+        if (bytes != null)
+            return complement[bytes[index] & 0xFF];
+        Objects.checkIndex(index, length);
+        if (exceptionPositions.length > 0)
+        {
+            int e = Arrays.binarySearch(exceptionPositions, index);
+            if (e >= 0)
+                return complement[exceptionBases[e] & 0xFF];
+        }
+        return (byte) BASES[3 - ((int) (words[index >>> 5] >>> ((index & 31) << 1)) & 3)];
+    }
+
+    /**
+     * A view of the bases from..to, reverse complemented if strand is -1.
+     */
+    public NucleotideView View(int from, int to, int strand)
+    {
+        Objects.checkFromToIndex(from, to, Length());
+        return new NucleotideView(this, from, to - from, strand);
+    }
+
     public NucleotideSequence GetUpstreamRegion(Gene gene)
-    {               
+    {
+        NucleotideView view = UpstreamView(gene);
+        if (view.strand == 1)
+            return Region(view.offset, view.offset + view.length);
+        else
+            return ReverseComplement(view.offset, view.offset + view.length);
+    }
+
+    /**
+     * The 250 bases upstream of a gene, or as many as there are, read on
+     * the gene's strand without copying them.
+     */
+    public NucleotideView UpstreamView(Gene gene)
+    {
         int upStreamDistance = 250;
         if (gene.location <= upStreamDistance)
            upStreamDistance = gene.location-1;
 
         if (gene.strand == 1)
-            return new NucleotideSequence(java.util.Arrays.copyOfRange(bytes, gene.location-upStreamDistance-1, gene.location-1));
+            return View(gene.location-upStreamDistance-1, gene.location-1, 1);
         else
         {
-            byte[] result = new byte[upStreamDistance];
-            int reverseStart = bytes.length - gene.location + upStreamDistance;
-            for (int i=0; i<upStreamDistance; i++)
-                result[i] = complement[bytes[reverseStart-i]];
-            return new NucleotideSequence(result);
+            int reverseStart = Length() - gene.location + upStreamDistance;
+            return View(reverseStart-upStreamDistance+1, reverseStart+1, -1);
         }
-    }    
-    
+    }
+
     @Override
     public String toString()
     {
-        return new String(bytes);
+        return new String(Bytes());
+    }
+
+    // The 32 packed bases from position from on, those past the end zero
+    private long Window(int from)
+    {
+        int word = from >>> 5;
+        int shift = (from & 31) << 1;
+        long window = words[word] >>> shift;
+        if (shift != 0 && word + 1 < words.length)
+            window |= words[word + 1] << (64 - shift);
+        return window;
+    }
+
+    // Writes the 32 bases of a word as ASCII, 4 at a time
+    private static void Unpack(long window, byte[] buffer, int at)
+    {
+        for (int k = 0; k < 8; k++)
+            INTS.set(buffer, at + 4 * k, BASES[(int) (window >>> 8 * k) & 0xFF]);
+    }
+
+    // Reverses the order of the 32 bases in a word and complements them, as a <-> t and c <-> g are code ^ 3
+    private static long ReverseComplement(long window)
+    {
+        window = ~window;
+        window = (window >>> 2 & 0x3333333333333333L) | (window & 0x3333333333333333L) << 2;
+        window = (window >>> 4 & 0x0F0F0F0F0F0F0F0FL) | (window & 0x0F0F0F0F0F0F0F0FL) << 4;
+        return Long.reverseBytes(window);
+    }
+
+    private int FirstException(int from)
+    {
+        int e = Arrays.binarySearch(exceptionPositions, from);
+        return e < 0 ? -e - 1 : e;
     }
 }
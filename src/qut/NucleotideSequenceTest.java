@@ -0,0 +1,58 @@
+package qut;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class NucleotideSequenceTest {
+    @Test
+    void PackedMatchesBytes() {
+        Random random = new Random(7);
+        String bases = "acgtacgtacgtacgtacgtacgtNRYACGT";
+        for (int length : new int[] { 0, 1, 31, 32, 33, 64, 250, 1000 }) {
+            byte[] dna = new byte[length];
+            for (int i = 0; i < length; i++)
+                dna[i] = (byte) bases.charAt(random.nextInt(bases.length()));
+            NucleotideSequence plain = new NucleotideSequence(dna);
+            NucleotideSequence packed = NucleotideSequence.Pack(dna);
+            assertEquals(length, packed.Length());
+            assertArrayEquals(dna, packed.Bytes());
+
+            for (int trial = 0; trial < 200 && length > 0; trial++) {
+                int from = random.nextInt(length + 1);
+                int to = from + random.nextInt(length - from + 1);
+                assertArrayEquals(plain.Region(from, to).bytes, packed.Region(from, to).bytes);
+                assertArrayEquals(plain.ReverseComplement(from, to).bytes, packed.ReverseComplement(from, to).bytes);
+                for (NucleotideSequence sequence : new NucleotideSequence[] { plain, packed }) {
+                    assertEquals(plain.Region(from, to).toString(), sequence.View(from, to, 1).toString());
+                    assertEquals(plain.ReverseComplement(from, to).toString(), sequence.View(from, to, -1).toString());
+                    CharSequence view = sequence.View(from, to, -1);
+                    int start = random.nextInt(view.length() + 1);
+                    assertEquals(view.toString().substring(start), view.subSequence(start, view.length()).toString());
+                }
+            }
+            for (int location = 1; location <= length; location += 7)
+                for (int strand : new int[] { 1, -1 }) {
+                    Gene gene = new Gene("gene", strand, location, "M");
+                    assertEquals(plain.GetUpstreamRegion(gene).toString(), packed.GetUpstreamRegion(gene).toString());
+                }
+        }
+    }
+
+    @Test
+    void GeneAt250TakesEveryBaseBeforeIt() {
+        // the runners' old rule, location < 250, started this gene's region at -1 and threw
+        byte[] dna = new byte[1000];
+        Random random = new Random(250);
+        for (int i = 0; i < dna.length; i++)
+            dna[i] = (byte) "acgt".charAt(random.nextInt(4));
+        NucleotideSequence sequence = NucleotideSequence.Pack(dna);
+        assertEquals(sequence.Region(0, 249).toString(), sequence.UpstreamView(new Gene("gene", 1, 250, "M")).toString());
+        assertEquals(sequence.Region(0, 250).toString(), sequence.UpstreamView(new Gene("gene", 1, 251, "M")).toString());
+        assertEquals(sequence.ReverseComplement(751, 1000).toString(),
+                sequence.UpstreamView(new Gene("gene", -1, 250, "M")).toString());
+    }
+}
@@ -0,0 +1,69 @@
+package qut;
+
+import java.util.Objects;
+
+/**
+ * Bases offset..offset+length of a NucleotideSequence, read in place: on
+ * the reverse strand (strand -1) they are read from the end backwards and
+ * complemented as they are read. Pattern searches take it as a
+ * CharSequence, so no bytes or String are made for it.
+ */
+public class NucleotideView implements CharSequence
+{
+    public final NucleotideSequence sequence;
+    public final int offset;
+    public final int length;
+    public final int strand;
+
+    public NucleotideView(NucleotideSequence sequence, int offset, int length, int strand)
+    {
+        this.sequence = sequence;
+        this.offset = offset;
+        this.length = length;
+        this.strand = strand;
+    }
+
+    @Override
+    public int length()
+    {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index)
+    {
+        Objects.checkIndex(index, length);
+        if (strand == 1)
+            return (char) (sequence.ByteAt(offset + index) & 0xFF);
+        return (char) (sequence.ComplementAt(offset + length - 1 - index) & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end)
+    {
+        Objects.checkFromToIndex(start, end, length);
+        if (strand == 1)
+            return new NucleotideView(sequence, offset + start, end - start, strand);
+        return new NucleotideView(sequence, offset + length - end, end - start, strand);
+    }
+
+    /**
+     * Writes the bases from..to of the view into the start of a buffer, a
+     * word at a time when the sequence is packed.
+     *
+     * @return the buffer
+     */
+    public byte[] Bytes(int from, int to, byte[] buffer)
+    {
+        Objects.checkFromToIndex(from, to, length);
+        if (strand == 1)
+            return sequence.Unpack(offset + from, offset + to, buffer);
+        return sequence.ReverseComplement(offset + length - to, offset + length - from, buffer);
+    }
+
+    @Override
+    public String toString()
+    {
+        return new String(Bytes(0, length, new byte[length]));
+    }
+}
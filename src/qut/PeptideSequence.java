@@ -3,28 +3,204 @@ package qut;
 import jaligner.*;
 import jaligner.matrix.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.lang.ref.WeakReference;
+import java.util.*;
 
 
+/**
+ * The translation of a CDS. Translations are compared by content, and those
+ * parsed from GenBank files are interned: genes with the same translation,
+ * paralogs within a genome or orthologs across strains, share one instance,
+ * kept in the pool only while some gene holds it (-Dqut.intern=off to give
+ * every gene its own). The bytes must not change once a sequence is made.
+ */
 public class PeptideSequence 
 {
     public byte[] bytes;
 
     private static final Matrix BLOSUM_62 = BLOSUM62.Load();
 
+    public static final boolean INTERN = !"off".equals(System.getProperty("qut.intern"));
+    private static final int STRIPES = 64;
+    private static final List<Map<PeptideSequence, WeakReference<PeptideSequence>>> POOL = new ArrayList<>();
+
+    static
+    {
+        for (int i = 0; i < STRIPES; i++)
+            POOL.add(new WeakHashMap<PeptideSequence, WeakReference<PeptideSequence>>());
+    }
+
+    private int hash;
+    private int owners;
+    // The bytes of a sequence only looked up in the pool, in place of bytes
+    private ByteBuffer view;
+    // Scores of a pooled sequence against references, by QueryProfile fingerprint
+    private long[] references;
+    private float[] scores;
+
     public PeptideSequence()
     {
     }
     
+    public PeptideSequence(byte[] sequence)
+    {
+        this.bytes = sequence;
+    }
+
     public PeptideSequence(String string)
     {
         bytes = string.getBytes();
     }
+
+    /**
+     * The pooled sequence with these bytes, pooling them if none has them yet.
+     */
+    public static PeptideSequence Intern(byte[] sequence)
+    {
+        PeptideSequence peptide = new PeptideSequence(sequence);
+        if (!INTERN)
+        {
+            peptide.owners = 1;
+            return peptide;
+        }
+        Map<PeptideSequence, WeakReference<PeptideSequence>> stripe = POOL.get(peptide.hashCode() & (STRIPES - 1));
+        synchronized (stripe)
+        {
+            WeakReference<PeptideSequence> pooled = stripe.get(peptide);
+            PeptideSequence canonical = pooled == null ? null : pooled.get();
+            if (canonical == null)
+            {
+                canonical = peptide;
+                canonical.references = new long[0];
+                canonical.scores = new float[0];
+                stripe.put(canonical, new WeakReference<PeptideSequence>(canonical));
+            }
+            canonical.owners++;
+            return canonical;
+        }
+    }
+
+    /**
+     * The pooled sequence with the bytes of a buffer, copying them only if
+     * none has them yet, so that a mapped file can be read without a copy
+     * per gene.
+     */
+    public static PeptideSequence Intern(ByteBuffer sequence)
+    {
+        if (!INTERN)
+        {
+            byte[] bytes = new byte[sequence.remaining()];
+            sequence.get(sequence.position(), bytes);
+            return Intern(bytes);
+        }
+        PeptideSequence probe = new PeptideSequence();
+        probe.view = sequence;
+        Map<PeptideSequence, WeakReference<PeptideSequence>> stripe = POOL.get(probe.hashCode() & (STRIPES - 1));
+        synchronized (stripe)
+        {
+            WeakReference<PeptideSequence> pooled = stripe.get(probe);
+            PeptideSequence canonical = pooled == null ? null : pooled.get();
+            if (canonical != null)
+            {
+                canonical.owners++;
+                return canonical;
+            }
+        }
+        byte[] bytes = new byte[sequence.remaining()];
+        sequence.get(sequence.position(), bytes);
+        return Intern(bytes);
+    }
+
+    /**
+     * How many times Intern has handed out this sequence: the number of
+     * genes parsed with this translation since it was pooled.
+     * <p>
+     * Only the count is kept, not the genes. A list of owners would keep
+     * every record that ever shared a translation alive for as long as any
+     * one of them is, where the pool only holds a sequence while some gene
+     * does. Scores fan out without such a list: HomologyScanner aligns each
+     * distinct sequence of a block once and hands its score to the genes
+     * sharing it, and later records find the score kept here.
+     */
+    public int Owners()
+    {
+        return owners;
+    }
     
     public static double Similarity(PeptideSequence A, PeptideSequence B)
     {  
-        return SmithWatermanGotoh.align(new Sequence(A.toString()), new Sequence(B.toString()), BLOSUM_62, 10f, 0.5f).calculateScore();       
+        return SmithWatermanGotoh.score(new Sequence(A.toString()), new Sequence(B.toString()), BLOSUM_62, 10f, 0.5f);       
     }
     
+    /**
+     * The score of a pooled sequence against a reference, as kept by
+     * Score(reference, score), so every gene sharing it is aligned once.
+     *
+     * @param reference fingerprint of the reference's QueryProfile
+     * @return the score, or NaN if it is not kept or the sequence is not pooled
+     */
+    public synchronized float Score(long reference)
+    {
+        if (references != null)
+            for (int i = 0; i < references.length; i++)
+                if (references[i] == reference)
+                    return scores[i];
+        return Float.NaN;
+    }
+
+    /**
+     * Keeps the score of a pooled sequence against a reference; does
+     * nothing for sequences that are not pooled.
+     */
+    public synchronized void Score(long reference, float score)
+    {
+        if (references == null || Float.isNaN(score) || !Float.isNaN(Score(reference)))
+            return;
+        references = Arrays.copyOf(references, references.length + 1);
+        scores = Arrays.copyOf(scores, scores.length + 1);
+        references[references.length - 1] = reference;
+        scores[scores.length - 1] = score;
+    }
+
+    @Override
+    public boolean equals(Object other)
+    {
+        if (this == other)
+            return true;
+        if (!(other instanceof PeptideSequence) || hashCode() != other.hashCode())
+            return false;
+        PeptideSequence peptide = (PeptideSequence) other;
+        if (view == null && peptide.view == null)
+            return Arrays.equals(bytes, peptide.bytes);
+        return Contents().equals(peptide.Contents());
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int h = hash;
+        if (h == 0)
+        {
+            if (view == null)
+                h = Arrays.hashCode(bytes);
+            else
+            {
+                // as Arrays.hashCode would give for the same bytes
+                h = 1;
+                for (int i = view.position(); i < view.limit(); i++)
+                    h = 31 * h + view.get(i);
+            }
+            hash = h = h | 1;
+        }
+        return h;
+    }
+
+    private ByteBuffer Contents()
+    {
+        return view != null ? view : ByteBuffer.wrap(bytes);
+    }
+
     @Override
     public String toString()
     {
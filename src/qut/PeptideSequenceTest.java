@@ -0,0 +1,51 @@
+package qut;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class PeptideSequenceTest {
+    @Test
+    void InternedGenesShareAlignments() throws IOException {
+        PeptideSequence first = PeptideSequence.Intern("MKVLAAGIVG".getBytes());
+        assertSame(first, PeptideSequence.Intern("MKVLAAGIVG".getBytes()));
+        assertEquals(2, first.Owners());
+        // as GenbankCache interns translations, from a view on a larger buffer
+        assertSame(first, PeptideSequence.Intern(ByteBuffer.wrap("**MKVLAAGIVG**".getBytes(), 2, 10)));
+        assertEquals(3, first.Owners());
+        assertEquals(new PeptideSequence("MKVLAAGIVG"), first);
+        assertFalse(first.equals(PeptideSequence.Intern("MKVLAAGIVA".getBytes())));
+
+        // every reference twice in each record, as paralogs, and once more in a second record
+        List<ReferenceGene> references = PromoterPipeline.ParseReferenceGenes("./referenceGenes.list");
+        GenbankRecord interned = new GenbankRecord(), copied = new GenbankRecord();
+        for (int copy = 0; copy < 2; copy++)
+            for (ReferenceGene reference : references) {
+                String translation = new String(reference.sequence.bytes).substring(copy);
+                for (int paralog = 0; paralog < 2; paralog++) {
+                    interned.genes.add(new Gene(reference.name, 1, 1, translation));
+                    copied.genes.add(new Gene(reference.name, 1, 1, new PeptideSequence(translation)));
+                }
+            }
+        for (int run = 0; run < 2; run++) {
+            HomologyHits expected = HomologyScanner.Scan(references, null, null, copied, 0, copied.genes.size());
+            HomologyHits actual = HomologyScanner.Scan(references, null, null, interned, 0, interned.genes.size());
+            assertEquals(expected.size, actual.size);
+            for (int i = 0; i < expected.size; i++) {
+                assertEquals(expected.genes[i], actual.genes[i]);
+                assertEquals(expected.scores[i], actual.scores[i]);
+            }
+        }
+        Gene gene = interned.genes.get(0);
+        assertEquals(references.get(0).name, gene.name);
+        assertSame(gene.sequence, interned.genes.get(1).sequence);
+        assertEquals(HomologyScanner.Scan(references.subList(0, 1), null, null, copied, 0, 1).scores[0],
+                gene.sequence.Score(references.get(0).profile.fingerprint()));
+    }
+}
@@ -0,0 +1,170 @@
+package qut;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The pipeline as three stages joined by bounded queues: the calling
+ * thread reads the files and queues each record's genes in blocks,
+ * aligner threads take the blocks and queue the homologous pairs they
+ * find, and a predictor thread takes those, predicts their promoters and
+ * adds them to the consensus. A stage that gets ahead blocks on its full
+ * queue, so at most capacity blocks and capacity lists of pairs wait at a
+ * time, and memory holds only the records they belong to, however many
+ * files there are.
+ */
+public class PipelinedStrategy extends ExecutionStrategy
+{
+    private static final long POLL = 100; // ms between checks for a failed stage
+
+    private final int threads;
+    private final int capacity;
+
+    /**
+     * @param threads aligner threads
+     * @param capacity length of each queue
+     */
+    public PipelinedStrategy(int threads, int capacity)
+    {
+        super("pipelined(" + threads + ", " + capacity + ")");
+        if (threads < 1 || capacity < 1)
+            throw new IllegalArgumentException("Pipeline needs a thread and a queue place");
+        this.threads = threads;
+        this.capacity = capacity;
+    }
+
+    // A block of genes of a record, then the pairs aligned in it
+    private static class Work
+    {
+        final GenbankRecord record;
+        final int from, to;
+        HomologyHits hits;
+
+        Work(GenbankRecord record, int from, int to)
+        {
+            this.record = record;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    private static final Work END = new Work(null, 0, 0);
+
+    @Override
+    public void Execute(PromoterPipeline pipeline, List<String> files) throws IOException, InterruptedException
+    {
+        BlockingQueue<Work> blocks = new ArrayBlockingQueue<Work>(capacity);
+        BlockingQueue<Work> aligned = new ArrayBlockingQueue<Work>(capacity);
+        Stages stages = new Stages();
+
+        for (int i = 0; i < threads; i++)
+            stages.Start("aligner-" + (i + 1), () -> {
+                for (Work work = blocks.take(); work != END; work = blocks.take())
+                {
+                    work.hits = pipeline.Align(work.record, work.from, work.to);
+                    if (work.hits.size > 0)
+                        aligned.put(work);
+                }
+                aligned.put(END);
+            });
+        stages.Start("predictor", () -> {
+            for (int ended = 0; ended < threads; )
+            {
+                Work work = aligned.take();
+                if (work == END)
+                    ended++;
+                else
+                    pipeline.Predict(work.record, work.hits);
+            }
+        });
+
+        try {
+            Read(pipeline, files, blocks, stages);
+        } catch (Throwable e) {
+            stages.Fail(e);
+        }
+        stages.Join();
+    }
+
+    // The reader stage, on the calling thread; stops early when another stage fails
+    private void Read(PromoterPipeline pipeline, List<String> files, BlockingQueue<Work> blocks, Stages stages) throws IOException, InterruptedException
+    {
+        for (String filename : files)
+        {
+            System.out.println(filename);
+            try (GenbankReader reader = new GenbankReader(filename))
+            {
+                for (GenbankRecord record = pipeline.Next(reader); record != null; record = pipeline.Next(reader))
+                {
+                    for (int from = 0; from < record.genes.size(); from += PromoterPipeline.BLOCK)
+                        if (!stages.Put(blocks, new Work(record, from, Math.min(record.genes.size(), from + PromoterPipeline.BLOCK))))
+                            return;
+                }
+            }
+        }
+        for (int i = 0; i < threads; i++)
+            if (!stages.Put(blocks, END))
+                return;
+    }
+
+    // The threads of the stages after the reader, and the first failure of any stage
+    private static class Stages
+    {
+        private final List<Thread> threads = new ArrayList<Thread>();
+        private volatile Throwable failure;
+
+        interface Stage
+        {
+            void Run() throws InterruptedException;
+        }
+
+        synchronized void Start(String name, Stage stage)
+        {
+            Thread thread = new Thread(() -> {
+                try {
+                    stage.Run();
+                } catch (InterruptedException e) {
+                    // stopped because another stage failed
+                } catch (Throwable e) {
+                    Fail(e);
+                }
+            }, name);
+            threads.add(thread);
+            thread.start();
+        }
+
+        // Waits for room in a queue; false if a stage failed first
+        <T> boolean Put(BlockingQueue<T> queue, T item) throws InterruptedException
+        {
+            while (failure == null)
+                if (queue.offer(item, POLL, TimeUnit.MILLISECONDS))
+                    return true;
+            return false;
+        }
+
+        synchronized void Fail(Throwable e)
+        {
+            if (failure != null)
+                return;
+            failure = e;
+            for (Thread thread : threads)
+                thread.interrupt();
+        }
+
+        void Join() throws IOException, InterruptedException
+        {
+            for (Thread thread : threads)
+                thread.join();
+            Throwable e = failure;
+            if (e instanceof InterruptedException)
+                throw (InterruptedException) e;
+            if (e instanceof IOException)
+                throw (IOException) e;
+            if (e instanceof RuntimeException)
+                throw (RuntimeException) e;
+            if (e instanceof Error)
+                throw (Error) e;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package qut;
+
+import java.util.*;
+
+/**
+ * Every sigma-70 promoter of a genome that reaches the threshold, on both
+ * strands, found by one pass of a Sigma70Scanner over each strand. A
+ * promoter scores the same wherever the window around it starts, so the
+ * best promoter of any window is the best one lying wholly inside it, and
+ * upstream regions become lookups instead of searches.
+ *
+ * Promoters are intervals of at most a few dozen bases, kept in arrays
+ * sorted by start: those in a window are found by a binary search for the
+ * window's start and a short walk. Reverse strand promoters are kept in
+ * reverse complement coordinates, where a window reads left to right.
+ */
+public class PromoterIndex
+{
+    private final NucleotideSequence genome;
+    private final Sigma70Scanner scanner;
+    private final Hits forward = new Hits();
+    private final Hits reverse = new Hits();
+
+    /**
+     * Promoters on one strand, in the order found: by start, then by spacer.
+     */
+    static class Hits
+    {
+        int size;
+        int[] starts = new int[1024];
+        byte[] spacers = new byte[1024];
+        double[] similarities = new double[1024];
+
+        void Add(int start, int spacer, double similarity)
+        {
+            if (size == starts.length)
+            {
+                starts = Arrays.copyOf(starts, size * 2);
+                spacers = Arrays.copyOf(spacers, size * 2);
+                similarities = Arrays.copyOf(similarities, size * 2);
+            }
+            starts[size] = start;
+            spacers[size] = (byte) spacer;
+            similarities[size] = similarity;
+            size++;
+        }
+    }
+
+    public PromoterIndex(NucleotideSequence genome)
+    {
+        this(genome, new Sigma70Scanner());
+    }
+
+    public PromoterIndex(NucleotideSequence genome, Sigma70Scanner scanner)
+    {
+        this.genome = genome;
+        this.scanner = scanner;
+        int length = genome.Length();
+        scanner.Scan(genome.View(0, length, 1), forward);
+        scanner.Scan(genome.View(0, length, -1), reverse);
+    }
+
+    /**
+     * Number of promoters on both strands.
+     */
+    public int size()
+    {
+        return forward.size + reverse.size;
+    }
+
+    /**
+     * The best promoter in a view of the genome, the same one
+     * Sigma70Scanner.BestMatch would find in it.
+     *
+     * @return the match, or null if no promoter reaches the threshold
+     */
+    public Sigma70Match BestMatch(NucleotideView window)
+    {
+        if (window.sequence != genome)
+            throw new IllegalArgumentException("Window is not on the indexed genome");
+        Hits hits = window.strand == 1 ? forward : reverse;
+        int from = window.strand == 1 ? window.offset : genome.Length() - window.offset - window.length;
+        int to = from + window.length;
+
+        int minimum = scanner.MinimumLength();
+        int first = Arrays.binarySearch(hits.starts, 0, hits.size, from);
+        if (first < 0)
+            first = -first - 1;
+        else
+            while (first > 0 && hits.starts[first - 1] == from)
+                first--;
+
+        int best = -1;
+        for (int i = first; i < hits.size && hits.starts[i] + minimum <= to; i++)
+            if (hits.starts[i] + scanner.Length(hits.spacers[i]) <= to
+                    && (best < 0 || hits.similarities[i] > hits.similarities[best]))
+                best = i;
+        return best < 0 ? null : scanner.Match(window, hits.starts[best] - from, hits.spacers[best], hits.similarities[best]);
+    }
+}
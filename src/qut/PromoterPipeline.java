@@ -0,0 +1,243 @@
+package qut;
+
+import jaligner.*;
+import jaligner.matrix.*;
+import java.io.*;
+import java.util.*;
+
+/**
+ * The consensus promoter prediction shared by every runner: reads the
+ * reference genes, then for each record of each GenBank file finds the
+ * CDSs homologous to a reference, predicts the sigma-70 promoter upstream
+ * of each and adds it to the consensus of that reference and of "all".
+ *
+ * The work is cut into blocks of a record's genes, and an
+ * ExecutionStrategy decides which threads process them; every stage here
+ * is safe to call from any number of threads at once.
+ *
+ * A pipeline owns the homology cache it is given; close it to flush and
+ * unmap the cache.
+ */
+public class PromoterPipeline implements Closeable
+{
+    /** Genes of a record processed as one unit of work. */
+    public static final int BLOCK = Integer.getInteger("qut.block", 64);
+
+    private static final Matrix BLOSUM_62 = BLOSUM62.Load();
+
+    public final List<ReferenceGene> referenceGenes;
+    private final SeedFilter seedFilter;
+    private final HomologyCache homologyCache;
+    private final ConsensusAccumulator accumulator;
+    private final ThreadLocal<Sigma70Scanner> scanners = ThreadLocal.withInitial(() -> new Sigma70Scanner());
+    // -Dqut.promoters=genome indexes every promoter of a genome once and looks up upstream regions in it
+    private final boolean genomeScan = "genome".equals(System.getProperty("qut.promoters"));
+    public final Metrics metrics = new Metrics();
+
+    /**
+     * A pipeline with the homology cache the system properties configure,
+     * if any (see HomologyCache.Configured).
+     */
+    public PromoterPipeline(String referenceFile) throws IOException
+    {
+        this(ParseReferenceGenes(referenceFile), HomologyCache.Configured());
+    }
+
+    public PromoterPipeline(List<ReferenceGene> referenceGenes)
+    {
+        this(referenceGenes, null);
+    }
+
+    /**
+     * @param homologyCache scores kept from earlier runs, or null to align every pair
+     */
+    public PromoterPipeline(List<ReferenceGene> referenceGenes, HomologyCache homologyCache)
+    {
+        this.referenceGenes = referenceGenes;
+        this.homologyCache = homologyCache;
+        seedFilter = SeedFilter.Configured(referenceGenes, BLOSUM_62);
+        List<String> names = new ArrayList<String>();
+        for (ReferenceGene referenceGene : referenceGenes)
+            names.add(referenceGene.name);
+        accumulator = new ConsensusAccumulator(names);
+    }
+
+    public static List<ReferenceGene> ParseReferenceGenes(String referenceFile) throws IOException
+    {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(referenceFile))))
+        {
+            List<ReferenceGene> referenceGenes = new ArrayList<ReferenceGene>();
+            while (true)
+            {
+                String name = reader.readLine();
+                if (name == null)
+                    break;
+                String sequence = reader.readLine();
+                referenceGenes.add(new ReferenceGene(name, sequence, BLOSUM_62, 10f, 0.5f));
+            }
+            return referenceGenes;
+        }
+    }
+
+    public static List<String> ListGenbankFiles(String dir)
+    {
+        List<String> list = new ArrayList<String>();
+        ProcessDir(list, new File(dir));
+        return list;
+    }
+
+    private static void ProcessDir(List<String> list, File dir)
+    {
+        if (dir.exists())
+            for (File file : dir.listFiles())
+                if (file.isDirectory())
+                    ProcessDir(list, file);
+                else
+                    list.add(file.getPath());
+    }
+
+    /**
+     * Processes every GenBank file under dir with a strategy.
+     *
+     * @return the consensus of each reference gene and of "all"
+     */
+    public HashMap<String, Sigma70Consensus> Run(String dir, ExecutionStrategy strategy) throws IOException, InterruptedException
+    {
+        Closeable reporter = metrics.Report(Long.getLong("qut.metrics.period", 0));
+        try
+        {
+            strategy.Execute(this, ListGenbankFiles(dir));
+        }
+        finally
+        {
+            reporter.close();
+        }
+        metrics.Export();
+        return Consensus();
+    }
+
+    /**
+     * Processes every record of a file in turn.
+     */
+    public void ProcessFile(String filename) throws IOException
+    {
+        System.out.println(filename);
+        try (GenbankReader reader = new GenbankReader(filename))
+        {
+            for (GenbankRecord record = Next(reader); record != null; record = Next(reader))
+                ProcessGenes(record, 0, record.genes.size());
+        }
+    }
+
+    /**
+     * The next record of a file, or null after the last; the parse stage.
+     */
+    public GenbankRecord Next(GenbankReader reader)
+    {
+        long start = metrics.parse.Start();
+        if (!reader.hasNext())
+            return null;
+        GenbankRecord record = reader.next();
+        metrics.parse.Stop(start);
+        metrics.records.Increment();
+        metrics.genes.Add(record.genes.size());
+        return record;
+    }
+
+    /**
+     * Processes the genes from..to of a record: aligns them against every
+     * reference gene, and predicts the promoter of each homologous one.
+     */
+    public void ProcessGenes(GenbankRecord record, int from, int to)
+    {
+        Predict(record, Align(record, from, to));
+    }
+
+    /**
+     * The pairs of a reference gene and one of the genes from..to of a
+     * record that are homologous.
+     */
+    public HomologyHits Align(GenbankRecord record, int from, int to)
+    {
+        long start = metrics.align.Start();
+        HomologyHits hits = HomologyScanner.Scan(referenceGenes, seedFilter, homologyCache, record, from, to, metrics);
+        metrics.align.Stop(start);
+        metrics.homologs.Add(hits.size);
+        return hits;
+    }
+
+    /**
+     * Predicts the promoter of every homologous gene of a record, and adds
+     * it to the consensus.
+     */
+    public void Predict(GenbankRecord record, HomologyHits hits)
+    {
+        for (int i = 0; i < hits.size; i++)
+        {
+            ReferenceGene referenceGene = referenceGenes.get(hits.references[i]);
+            Sigma70Match prediction = PredictPromoter(record, record.genes.get(hits.genes[i]));
+            if (prediction != null)
+            {
+                long start = metrics.accumulate.Start();
+                accumulator.addMatch(referenceGene.name, prediction);
+                metrics.accumulate.Stop(start);
+                metrics.promoters.Increment();
+            }
+        }
+    }
+
+    /**
+     * The best promoter in the 250 bases upstream of a gene, or null.
+     */
+    public Sigma70Match PredictPromoter(GenbankRecord record, Gene gene)
+    {
+        long start = metrics.upstream.Start();
+        NucleotideView upStreamRegion = record.nucleotides.UpstreamView(gene);
+        metrics.upstream.Stop(start);
+        start = metrics.search.Start();
+        Sigma70Match match = genomeScan ? record.Promoters().BestMatch(upStreamRegion) : scanners.get().BestMatch(upStreamRegion);
+        metrics.search.Stop(start);
+        return match;
+    }
+
+    /**
+     * The consensus so far, once the strategy has finished.
+     */
+    public HashMap<String, Sigma70Consensus> Consensus()
+    {
+        return accumulator.Snapshot();
+    }
+
+    /**
+     * Flushes and unmaps the homology cache, if there is one.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (homologyCache != null)
+            homologyCache.close();
+    }
+
+    /**
+     * Runs the pipeline over ./Ecoli with the strategy named by -Dqut.strategy
+     * (sequential by default) and -Dqut.threads threads.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        long startTime = System.currentTimeMillis();
+        ExecutionStrategy strategy = ExecutionStrategy.Configured();
+        System.out.println("Strategy: " + strategy);
+        HomologyCache cache = HomologyCache.Configured();
+        try (PromoterPipeline pipeline = new PromoterPipeline(PromoterPipeline.ParseReferenceGenes("./referenceGenes.list"), cache))
+        {
+            HashMap<String, Sigma70Consensus> consensus = pipeline.Run("./Ecoli", strategy);
+            for (Map.Entry<String, Sigma70Consensus> entry : consensus.entrySet())
+                System.out.println(entry.getKey() + " " + entry.getValue());
+            if (cache != null)
+                System.out.println("Homology cache: " + cache.Hits() + " hits, " + cache.Misses() + " misses");
+            System.out.println(pipeline.metrics.Summary());
+        }
+        long timeLapsed = System.currentTimeMillis() - startTime;
+        System.out.println("\nTime: " + timeLapsed/1000.0 + "s");
+    }
+}
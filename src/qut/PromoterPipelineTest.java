@@ -0,0 +1,132 @@
+package qut;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class PromoterPipelineTest {
+    private static final String ACIDS = "ACDEFGHIKLMNPQRSTVWY";
+
+    @Test
+    void StrategiesAgree(@TempDir Path dir) throws IOException, InterruptedException {
+        String references = WriteFixture(dir).resolve("referenceGenes.list").toString();
+        String genomes = dir.resolve("Ecoli").toString();
+        HashMap<String, Sigma70Consensus> expected = new PromoterPipeline(references)
+                .Run(genomes, ExecutionStrategy.Sequential());
+        // every reference has homologues behind promoters
+        for (Sigma70Consensus consensus : expected.values())
+            assertFalse(consensus.toString().endsWith("(0 matches)"), consensus.toString());
+        for (ExecutionStrategy strategy : new ExecutionStrategy[] { ExecutionStrategy.ForkJoin(3),
+                ExecutionStrategy.FixedPool(3), ExecutionStrategy.VirtualThreads(), ExecutionStrategy.PerFileThreads(),
+                ExecutionStrategy.Named("structured", 3), new PipelinedStrategy(3, 1) }) {
+            HashMap<String, Sigma70Consensus> actual = new PromoterPipeline(references).Run(genomes, strategy);
+            assertEquals(expected.keySet(), actual.keySet(), strategy.toString());
+            for (String name : expected.keySet())
+                assertEquals(expected.get(name).toString(), actual.get(name).toString(), strategy + " " + name);
+        }
+    }
+
+    @Test
+    void MissingFileFails() throws IOException {
+        PromoterPipeline pipeline = new PromoterPipeline("./referenceGenes.list");
+        for (String name : new String[] { "sequential", "forkjoin", "fixed", "virtual", "perfile", "structured", "pipelined" }) {
+            ExecutionStrategy strategy = ExecutionStrategy.Named(name, 2);
+            assertThrows(IOException.class, () -> strategy.Execute(pipeline, Arrays.asList("./missing.gbk")), name);
+        }
+    }
+
+    /**
+     * Writes dir/referenceGenes.list, three random reference genes, and
+     * dir/Ecoli, three GenBank files. Every other CDS of a file is a
+     * reference with a tenth of its residues changed, on the forward strand
+     * behind a planted promoter; the rest are random peptides on either
+     * strand.
+     *
+     * @return dir
+     */
+    static Path WriteFixture(Path dir) throws IOException {
+        return WriteFixture(dir, 70);
+    }
+
+    /**
+     * The same with other genes, made from a seed.
+     */
+    static Path WriteFixture(Path dir, long seed) throws IOException {
+        Random random = new Random(seed);
+        String[] references = new String[3];
+        StringBuilder list = new StringBuilder();
+        for (int r = 0; r < references.length; r++) {
+            references[r] = peptide(random, 120 + 40 * r);
+            list.append("ref").append(r).append('\n').append(references[r]).append('\n');
+        }
+        Files.writeString(dir.resolve("referenceGenes.list"), list);
+        Files.createDirectories(dir.resolve("Ecoli"));
+        for (int f = 0; f < 3; f++)
+            Files.writeString(dir.resolve("Ecoli").resolve("fixture" + f + ".gbk"), record(random, f, references));
+        return dir;
+    }
+
+    private static String record(Random random, int index, String[] references) {
+        int genes = 8, spacing = 800, length = genes * spacing + 400;
+        char[] dna = new char[length];
+        for (int i = 0; i < length; i++)
+            dna[i] = "acgt".charAt(random.nextInt(4));
+
+        StringBuilder text = new StringBuilder();
+        text.append("LOCUS       FIXTURE").append(index).append("  ").append(length)
+                .append(" bp    DNA     circular BCT 01-JAN-2020\n");
+        text.append("FEATURES             Location/Qualifiers\n");
+        text.append("     source          1..").append(length).append('\n');
+        for (int k = 0; k < genes; k++) {
+            int location = 300 + k * spacing;
+            boolean homologue = k % 2 == 0;
+            String translation;
+            String span = location + ".." + (location + 450);
+            if (homologue) {
+                char[] mutant = references[(index + k / 2) % references.length].toCharArray();
+                for (int i = 0; i < mutant.length; i++)
+                    if (random.nextInt(10) == 0)
+                        mutant[i] = ACIDS.charAt(random.nextInt(ACIDS.length()));
+                translation = new String(mutant);
+                String promoter = "ttgacaatgcatcgatcgatataat";
+                promoter.getChars(0, promoter.length(), dna, location - 1 - 40);
+            } else {
+                translation = peptide(random, 150);
+                if (random.nextBoolean())
+                    span = "complement(" + span + ")";
+            }
+            text.append("     gene            ").append(span).append('\n');
+            text.append("     CDS             ").append(span).append('\n');
+            text.append("                     /gene=\"f").append(index).append('g').append(k).append("\"\n");
+            text.append("                     /db_xref=\"GeneID:").append(1000 * index + k).append("\"\n");
+            String qualifier = "/translation=\"" + translation + "\"";
+            for (int at = 0; at < qualifier.length(); at += 58)
+                text.append("                     ").append(qualifier, at, Math.min(qualifier.length(), at + 58)).append('\n');
+        }
+        text.append("ORIGIN      \n");
+        for (int i = 0; i < length; i += 60) {
+            text.append(String.format("%9d", i + 1));
+            for (int j = i; j < Math.min(length, i + 60); j += 10)
+                text.append(' ').append(dna, j, Math.min(length, j + 10) - j);
+            text.append('\n');
+        }
+        return text.append("//\n").toString();
+    }
+
+    private static String peptide(Random random, int length) {
+        char[] peptide = new char[length];
+        for (int i = 0; i < length; i++)
+            peptide[i] = ACIDS.charAt(random.nextInt(ACIDS.length()));
+        return new String(peptide);
+    }
+}
@@ -0,0 +1,15 @@
+package qut;
+
+import jaligner.*;
+import jaligner.matrix.*;
+
+public class ReferenceGene extends Gene
+{
+    public QueryProfile profile;
+
+    public ReferenceGene(String name, String sequence, Matrix matrix, float open, float extend)
+    {
+        super(name, 0, 0, sequence);
+        this.profile = new QueryProfile(new Sequence(sequence), matrix, open, extend);
+    }
+}
@@ -0,0 +1,347 @@
+package qut;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Measures how the pipeline scales with threads: runs each strategy over
+ * ./Ecoli at each thread count, every run in a JVM of its own, and
+ * repeats until the 95% confidence interval of the mean is within a
+ * fraction of it. Writes the times, the speedup over the sequential
+ * strategy and the parallel efficiency to a CSV file and a Markdown
+ * report, with the serial fraction of each strategy fitted by Amdahl's and
+ * by Gustafson's law.
+ *
+ * A fork starts with the common fork-join pool and the virtual thread
+ * scheduler sized to its thread count, since both are fixed once the JVM
+ * creates them. It inherits this JVM's --enable-preview, --add-modules and
+ * heap sizes, and its -Dqut properties; the homology cache stays off
+ * unless -Dqut.homology.cache names a file, so that every run aligns
+ * everything. One untimed fork comes first, to warm the page cache, and
+ * the GenBank cache when -Dqut.cache names a directory.
+ *
+ * -Dqut.scaling.strategies  strategies to sweep (forkjoin,fixed,virtual,structured,pipelined)
+ * -Dqut.scaling.threads     thread counts (1,2,4,... up to the cores)
+ * -Dqut.scaling.runs        runs at least (3) and at most (-Dqut.scaling.maxRuns, 10)
+ * -Dqut.scaling.precision   half-width of the interval to reach, as a fraction of the mean (0.05)
+ * -Dqut.scaling.out         report files, without .csv and .md (scaling)
+ */
+public class ScalingHarness
+{
+    private static final String ELAPSED = "Elapsed ns: ";
+
+    // Two-sided 95% quantiles of Student's t for 1..30 degrees of freedom
+    private static final double[] T95 = { 12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+            2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+            2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042 };
+
+    private final String referenceFile, dir;
+    private final int minimumRuns, maximumRuns;
+    private final double precision;
+
+    public ScalingHarness(String referenceFile, String dir, int minimumRuns, int maximumRuns, double precision)
+    {
+        if (minimumRuns < 2 || maximumRuns < minimumRuns)
+            throw new IllegalArgumentException("Need at least 2 runs, and no more than the most");
+        this.referenceFile = referenceFile;
+        this.dir = dir;
+        this.minimumRuns = minimumRuns;
+        this.maximumRuns = maximumRuns;
+        this.precision = precision;
+    }
+
+    /**
+     * The times of one strategy at one thread count.
+     */
+    public static class Measurement
+    {
+        public final String strategy;
+        public final int threads;
+        public final double[] seconds;
+
+        public Measurement(String strategy, int threads, double[] seconds)
+        {
+            this.strategy = strategy;
+            this.threads = threads;
+            this.seconds = seconds;
+        }
+
+        public double Mean()
+        {
+            return ScalingHarness.Mean(seconds);
+        }
+
+        /**
+         * Half-width of the 95% confidence interval of the mean.
+         */
+        public double HalfWidth()
+        {
+            return ScalingHarness.HalfWidth(seconds);
+        }
+    }
+
+    /**
+     * Runs forks of a strategy until the interval is narrow enough or the
+     * most runs are done.
+     */
+    public Measurement Measure(String strategy, int threads) throws IOException, InterruptedException
+    {
+        List<Double> times = new ArrayList<Double>();
+        double[] seconds;
+        do
+        {
+            times.add(Fork(strategy, threads));
+            seconds = times.stream().mapToDouble(Double::doubleValue).toArray();
+        }
+        while (times.size() < minimumRuns
+                || (times.size() < maximumRuns && HalfWidth(seconds) > precision * Mean(seconds)));
+        return new Measurement(strategy, threads, seconds);
+    }
+
+    /**
+     * Runs the pipeline once in a new JVM.
+     *
+     * @return the seconds it took, from reading the first file to the consensus
+     */
+    public double Fork(String strategy, int threads) throws IOException, InterruptedException
+    {
+        List<String> command = new ArrayList<String>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(ForkOptions(ManagementFactory.getRuntimeMXBean().getInputArguments()));
+        for (String name : System.getProperties().stringPropertyNames())
+            if (name.startsWith("qut.") && !name.startsWith("qut.scaling.") && !name.equals("qut.strategy") && !name.equals("qut.threads"))
+                command.add("-D" + name + "=" + System.getProperty(name));
+        command.add("-Djava.util.concurrent.ForkJoinPool.common.parallelism=" + threads);
+        command.add("-Djdk.virtualThreadScheduler.parallelism=" + threads);
+        command.add("-classpath");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ScalingHarness.class.getName());
+        command.addAll(Arrays.asList("run", strategy, Integer.toString(threads), referenceFile, dir));
+
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        String elapsed = null;
+        try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8)))
+        {
+            for (String line = output.readLine(); line != null; line = output.readLine())
+                if (line.startsWith(ELAPSED))
+                    elapsed = line.substring(ELAPSED.length());
+        }
+        int exit = process.waitFor();
+        if (exit != 0 || elapsed == null)
+            throw new IOException(strategy + " with " + threads + " threads failed with exit code " + exit);
+        return Long.parseLong(elapsed) / 1e9;
+    }
+
+    // What a fork runs
+    private static void Run(String strategy, int threads, String referenceFile, String dir) throws IOException, InterruptedException
+    {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // the file names the strategies print
+        long elapsed;
+        try (PromoterPipeline pipeline = new PromoterPipeline(referenceFile))
+        {
+            long start = System.nanoTime();
+            pipeline.Run(dir, ExecutionStrategy.Named(strategy, threads));
+            elapsed = System.nanoTime() - start;
+        }
+        System.setOut(out);
+        System.out.println(ELAPSED + elapsed);
+    }
+
+    /**
+     * The options of this JVM that a fork takes too: --enable-preview,
+     * --add-modules and its modules, and the heap sizes. Others, such as
+     * an agent or a debugger port, would disturb or break the forks.
+     */
+    static List<String> ForkOptions(List<String> options)
+    {
+        List<String> kept = new ArrayList<String>();
+        for (int i = 0; i < options.size(); i++)
+        {
+            String option = options.get(i);
+            if (option.equals("--add-modules") && i + 1 < options.size())
+            {
+                kept.add(option);
+                kept.add(options.get(++i));
+            }
+            else if (option.equals("--enable-preview") || option.startsWith("--add-modules=")
+                    || option.startsWith("-Xmx") || option.startsWith("-Xms"))
+                kept.add(option);
+        }
+        return kept;
+    }
+
+    /**
+     * Serial fraction s of Amdahl's law, speedup = 1 / (s + (1 - s) / p),
+     * fitted by least squares to 1 / speedup.
+     */
+    public static double AmdahlSerialFraction(int[] threads, double[] speedups)
+    {
+        // 1/S - 1/p = s (1 - 1/p)
+        double xy = 0, xx = 0;
+        for (int i = 0; i < threads.length; i++)
+        {
+            double x = 1 - 1.0 / threads[i];
+            xy += x * (1 / speedups[i] - 1.0 / threads[i]);
+            xx += x * x;
+        }
+        return xx == 0 ? Double.NaN : Math.max(0, Math.min(1, xy / xx));
+    }
+
+    /**
+     * The most speedup Amdahl's law allows with a serial fraction, 1 / s,
+     * or "unbounded" when there is no serial part.
+     */
+    static String SpeedupLimit(double serialFraction)
+    {
+        return serialFraction == 0 ? "unbounded" : String.format(Locale.ROOT, "%.1f", 1 / serialFraction);
+    }
+
+    /**
+     * Serial fraction s of Gustafson's law, speedup = p - s (p - 1),
+     * fitted by least squares to the speedup.
+     */
+    public static double GustafsonSerialFraction(int[] threads, double[] speedups)
+    {
+        // p - S = s (p - 1)
+        double xy = 0, xx = 0;
+        for (int i = 0; i < threads.length; i++)
+        {
+            double x = threads[i] - 1;
+            xy += x * (threads[i] - speedups[i]);
+            xx += x * x;
+        }
+        return xx == 0 ? Double.NaN : Math.max(0, Math.min(1, xy / xx));
+    }
+
+    static double Mean(double[] values)
+    {
+        double sum = 0;
+        for (double value : values)
+            sum += value;
+        return sum / values.length;
+    }
+
+    static double HalfWidth(double[] values)
+    {
+        int n = values.length;
+        if (n < 2)
+            return Double.POSITIVE_INFINITY;
+        double mean = Mean(values), squares = 0;
+        for (double value : values)
+            squares += (value - mean) * (value - mean);
+        double t = n - 1 <= T95.length ? T95[n - 2] : 1.96;
+        return t * Math.sqrt(squares / (n - 1) / n);
+    }
+
+    /**
+     * Writes the measurements as CSV, a row per strategy and thread count.
+     *
+     * @param baseline mean seconds the speedups are relative to
+     */
+    public static void WriteCsv(Path file, List<Measurement> measurements, double baseline) throws IOException
+    {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file)))
+        {
+            writer.println("strategy,threads,runs,mean_s,ci95_s,speedup,efficiency");
+            for (Measurement m : measurements)
+            {
+                double speedup = baseline / m.Mean();
+                writer.printf(Locale.ROOT, "%s,%d,%d,%.4f,%.4f,%.3f,%.3f%n", m.strategy, m.threads, m.seconds.length,
+                        m.Mean(), m.HalfWidth(), speedup, speedup / m.threads);
+            }
+        }
+    }
+
+    /**
+     * Writes the measurements as a Markdown table, and the fitted serial
+     * fractions of each strategy measured at more than one thread count.
+     */
+    public static void WriteMarkdown(Path file, List<Measurement> measurements, double baseline) throws IOException
+    {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file)))
+        {
+            writer.printf(Locale.ROOT, "# Scaling on %d cores%n%n", Runtime.getRuntime().availableProcessors());
+            writer.printf(Locale.ROOT, "Speedup over the sequential strategy, %.3f s.%n%n", baseline);
+            writer.println("| Strategy | Threads | Runs | Mean (s) | 95% CI (s) | Speedup | Efficiency |");
+            writer.println("|---|---:|---:|---:|---:|---:|---:|");
+            for (Measurement m : measurements)
+            {
+                double speedup = baseline / m.Mean();
+                writer.printf(Locale.ROOT, "| %s | %d | %d | %.3f | ±%.3f | %.2f | %.0f%% |%n", m.strategy, m.threads,
+                        m.seconds.length, m.Mean(), m.HalfWidth(), speedup, 100 * speedup / m.threads);
+            }
+
+            writer.println();
+            writer.println("| Strategy | Amdahl serial fraction | Amdahl speedup limit | Gustafson serial fraction |");
+            writer.println("|---|---:|---:|---:|");
+            Map<String, List<Measurement>> byStrategy = new LinkedHashMap<String, List<Measurement>>();
+            for (Measurement m : measurements)
+                byStrategy.computeIfAbsent(m.strategy, s -> new ArrayList<Measurement>()).add(m);
+            for (Map.Entry<String, List<Measurement>> entry : byStrategy.entrySet())
+            {
+                List<Measurement> sweep = entry.getValue();
+                if (sweep.size() < 2)
+                    continue;
+                int[] threads = new int[sweep.size()];
+                double[] speedups = new double[sweep.size()];
+                for (int i = 0; i < threads.length; i++)
+                {
+                    threads[i] = sweep.get(i).threads;
+                    speedups[i] = baseline / sweep.get(i).Mean();
+                }
+                double amdahl = AmdahlSerialFraction(threads, speedups);
+                writer.printf(Locale.ROOT, "| %s | %.3f | %s | %.3f |%n", entry.getKey(), amdahl,
+                        SpeedupLimit(amdahl), GustafsonSerialFraction(threads, speedups));
+            }
+        }
+    }
+
+    private static int[] ThreadCounts(String list)
+    {
+        if (list != null)
+            return Arrays.stream(list.split(",")).mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+        List<Integer> counts = new ArrayList<Integer>();
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads < cores; threads *= 2)
+            counts.add(threads);
+        counts.add(cores);
+        return counts.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        if (args.length == 5 && "run".equals(args[0]))
+        {
+            Run(args[1], Integer.parseInt(args[2]), args[3], args[4]);
+            return;
+        }
+
+        ScalingHarness harness = new ScalingHarness("./referenceGenes.list", "./Ecoli",
+                Integer.getInteger("qut.scaling.runs", 3), Integer.getInteger("qut.scaling.maxRuns", 10),
+                Double.parseDouble(System.getProperty("qut.scaling.precision", "0.05")));
+        String[] strategies = System.getProperty("qut.scaling.strategies", "forkjoin,fixed,virtual,structured,pipelined").split(",");
+        int[] threadCounts = ThreadCounts(System.getProperty("qut.scaling.threads"));
+        String out = System.getProperty("qut.scaling.out", "scaling");
+
+        harness.Fork("sequential", 1);
+        Measurement sequential = harness.Measure("sequential", 1);
+        System.out.printf(Locale.ROOT, "sequential: %.3f s ±%.3f%n", sequential.Mean(), sequential.HalfWidth());
+        List<Measurement> measurements = new ArrayList<Measurement>();
+        measurements.add(sequential);
+        for (String strategy : strategies)
+            for (int threads : threadCounts)
+            {
+                Measurement m = harness.Measure(strategy.trim(), threads);
+                System.out.printf(Locale.ROOT, "%s(%d): %.3f s ±%.3f%n", m.strategy, threads, m.Mean(), m.HalfWidth());
+                measurements.add(m);
+            }
+
+        WriteCsv(Paths.get(out + ".csv"), measurements, sequential.Mean());
+        WriteMarkdown(Paths.get(out + ".md"), measurements, sequential.Mean());
+        System.out.println("Wrote " + out + ".csv and " + out + ".md");
+    }
+}
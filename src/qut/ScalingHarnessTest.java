@@ -0,0 +1,45 @@
+package qut;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ScalingHarnessTest {
+    @Test
+    void FitsRecoverSerialFraction() {
+        int[] threads = { 1, 2, 4, 8, 16 };
+        double[] amdahl = new double[threads.length], gustafson = new double[threads.length];
+        for (int i = 0; i < threads.length; i++) {
+            amdahl[i] = 1 / (0.1 + 0.9 / threads[i]);
+            gustafson[i] = threads[i] - 0.2 * (threads[i] - 1);
+        }
+        assertEquals(0.1, ScalingHarness.AmdahlSerialFraction(threads, amdahl), 1e-9);
+        assertEquals(0.2, ScalingHarness.GustafsonSerialFraction(threads, gustafson), 1e-9);
+        // perfect scaling has no serial part, and no limit
+        assertEquals(0, ScalingHarness.AmdahlSerialFraction(threads, new double[] { 1, 2, 4, 8, 16 }), 1e-9);
+        assertEquals("unbounded", ScalingHarness.SpeedupLimit(0));
+        assertEquals("10.0", ScalingHarness.SpeedupLimit(0.1));
+    }
+
+    @Test
+    void ForksKeepOnlyAllowedOptions() {
+        assertEquals(Arrays.asList("--enable-preview", "--add-modules", "jdk.incubator.vector", "-Xmx4g", "-Xms1g",
+                        "--add-modules=jdk.incubator.foreign"),
+                ScalingHarness.ForkOptions(Arrays.asList("--enable-preview", "-agentlib:jdwp=transport=dt_socket,address=5005",
+                        "--add-modules", "jdk.incubator.vector", "-Xmx4g", "-Dqut.threads=8", "-Xms1g",
+                        "-Djava.util.concurrent.ForkJoinPool.common.parallelism=2", "--add-modules=jdk.incubator.foreign")));
+    }
+
+    @Test
+    void IntervalNarrowsWithRuns() {
+        double[] few = { 1.0, 1.2, 0.8 };
+        double[] many = { 1.0, 1.2, 0.8, 1.0, 1.2, 0.8, 1.0, 1.2, 0.8 };
+        assertEquals(1.0, ScalingHarness.Mean(few), 1e-12);
+        // t(2) * s / sqrt(3), with s = 0.2
+        assertEquals(4.303 * 0.2 / Math.sqrt(3), ScalingHarness.HalfWidth(few), 1e-9);
+        assertTrue(ScalingHarness.HalfWidth(many) < ScalingHarness.HalfWidth(few) / 2);
+    }
+}
@@ -0,0 +1,275 @@
+package qut;
+
+import jaligner.matrix.*;
+import java.util.*;
+
+/**
+ * BLAST-style word prefilter for the homology test. Every word of k residues
+ * in a reference gene is expanded into its neighbourhood: all words that
+ * score at least a threshold against it with the scoring matrix. A gene is
+ * only worth aligning against a reference if one of its own words is in
+ * that neighbourhood, or with two-hit seeding, if two such words fall on the
+ * same diagonal within a window.
+ *
+ * Words may be spelled in a reduced alphabet, whose letters are groups of
+ * amino acids that substitute for each other: a neighbour word then scores
+ * each group as its best member against the reference residue, so it
+ * stands for every word of the group letters, and the same number of index
+ * entries reaches a longer k.
+ *
+ * The filter is a heuristic: a pair it rejects is not proven to score below
+ * the homology threshold. Run it in VERIFY mode to find out what it misses.
+ */
+public class SeedFilter
+{
+    public enum Mode { OFF, ON, VERIFY }
+
+    // Residues are coded over the 20 standard amino acids; any other residue breaks a word
+    private static final String ALPHABET = "ARNDCQEGHILKMFPSTWYV";
+
+    /** Every standard amino acid a letter of its own. */
+    public static final String FULL = "A R N D C Q E G H I L K M F P S T W Y V";
+
+    /** Murphy, Wallqvist and Levy's 10 letters (Protein Eng. 13:149, 2000). */
+    public static final String MURPHY10 = "LVIM C A G ST P FYW EDNQ KR H";
+    private static final byte[] CODES = new byte[128];
+
+    static
+    {
+        Arrays.fill(CODES, (byte) -1);
+        for (int i = 0; i < ALPHABET.length(); i++)
+        {
+            CODES[ALPHABET.charAt(i)] = (byte) i;
+            CODES[Character.toLowerCase(ALPHABET.charAt(i))] = (byte) i;
+        }
+    }
+
+    public final Mode mode;
+    private final int k;
+    private final int window;
+    private final int letters;
+    private final int[] letterOf; // letter of each residue code
+    private final int references;
+    private final int[] referenceLengths;
+
+    // Neighbourhood index: entries start[word] .. start[word+1]-1 hold the
+    // reference and position of every word the key is a neighbour of
+    private final int[] start;
+    private final int[] hitReferences;
+    private final int[] hitPositions;
+
+    // Per-thread last hit on every diagonal, for two-hit seeding
+    private final ThreadLocal<int[][]> lastHits;
+
+    /**
+     * Builds the neighbourhood index of the reference genes.
+     *
+     * @param referenceGenes genes to index
+     * @param matrix scoring matrix for neighbourhood words
+     * @param k word length
+     * @param threshold lowest score of a neighbourhood word against the reference word
+     * @param window greatest distance of two hits on a diagonal, or 0 for single-hit seeding
+     * @param mode how HomologyScanner uses the filter
+     */
+    public SeedFilter(List<? extends Gene> referenceGenes, Matrix matrix, int k, int threshold, int window, Mode mode)
+    {
+        this(referenceGenes, matrix, FULL, k, threshold, window, mode);
+    }
+
+    /**
+     * @param alphabet letters of the words, each a group of the 20 standard
+     *                 amino acids, separated by spaces, such as FULL or MURPHY10
+     */
+    public SeedFilter(List<? extends Gene> referenceGenes, Matrix matrix, String alphabet, int k, int threshold,
+                      int window, Mode mode)
+    {
+        this.mode = mode;
+        this.k = k;
+        this.window = window;
+        this.references = referenceGenes.size();
+        this.referenceLengths = new int[references];
+
+        String[] groups = alphabet.trim().split("\\s+");
+        letters = groups.length;
+        letterOf = new int[ALPHABET.length()];
+        Arrays.fill(letterOf, -1);
+        for (int l = 0; l < letters; l++)
+            for (char c : groups[l].toCharArray())
+            {
+                int code = c < CODES.length ? CODES[c] : -1;
+                if (code < 0 || letterOf[code] >= 0)
+                    throw new IllegalArgumentException("Not a group of standard amino acids: " + groups[l]);
+                letterOf[code] = l;
+            }
+        for (int code = 0; code < ALPHABET.length(); code++)
+            if (letterOf[code] < 0)
+                throw new IllegalArgumentException("No letter for " + ALPHABET.charAt(code) + " in " + alphabet);
+
+        // A residue against a letter scores as against the letter's best member
+        float[][] scores = new float[ALPHABET.length()][letters];
+        float[] best = new float[ALPHABET.length()];
+        for (int a = 0; a < ALPHABET.length(); a++)
+        {
+            best[a] = Float.NEGATIVE_INFINITY;
+            Arrays.fill(scores[a], Float.NEGATIVE_INFINITY);
+            for (int b = 0; b < ALPHABET.length(); b++)
+            {
+                float score = matrix.getScore(ALPHABET.charAt(a), ALPHABET.charAt(b));
+                scores[a][letterOf[b]] = Math.max(scores[a][letterOf[b]], score);
+                best[a] = Math.max(best[a], score);
+            }
+        }
+
+        int words = 1;
+        for (int i = 0; i < k; i++)
+            words *= letters;
+
+        // Collect (neighbour word, reference, position) triples, then lay them out by word
+        int[] counts = new int[words + 1];
+        List<int[]> neighbours = new ArrayList<int[]>();
+        for (int r = 0; r < references; r++)
+        {
+            byte[] residues = referenceGenes.get(r).sequence.bytes;
+            referenceLengths[r] = residues.length;
+            int[] word = new int[k];
+            for (int p = 0; p + k <= residues.length; p++)
+            {
+                if (!Encode(residues, p, word))
+                    continue;
+                float[] remaining = new float[k + 1];
+                for (int i = k - 1; i >= 0; i--)
+                    remaining[i] = remaining[i + 1] + best[word[i]];
+                Expand(scores, letters, remaining, word, threshold, 0, 0, 0, r, p, neighbours, counts);
+            }
+        }
+
+        start = new int[words + 1];
+        for (int w = 0; w < words; w++)
+            start[w + 1] = start[w] + counts[w];
+        hitReferences = new int[start[words]];
+        hitPositions = new int[start[words]];
+        int[] next = Arrays.copyOf(start, words);
+        for (int[] neighbour : neighbours)
+        {
+            int at = next[neighbour[0]]++;
+            hitReferences[at] = neighbour[1];
+            hitPositions[at] = neighbour[2];
+        }
+
+        lastHits = ThreadLocal.withInitial(() -> new int[references][0]);
+    }
+
+    /**
+     * Builds the filter selected by the qut.prefilter system property (off, on
+     * or verify). Word length, neighbourhood threshold and two-hit window
+     * default to BLAST's protein settings of 3, 11 and 40 and can be tightened
+     * with qut.prefilter.word, qut.prefilter.threshold and qut.prefilter.window;
+     * a tighter filter skips more pairs and misses more weak homologs, which
+     * verify mode reports. qut.prefilter.alphabet=murphy10 spells words in
+     * MURPHY10, for which the word length defaults to 4.
+     *
+     * @return the filter, or null when prefiltering is off
+     */
+    public static SeedFilter Configured(List<? extends Gene> referenceGenes, Matrix matrix)
+    {
+        Mode mode = Mode.valueOf(System.getProperty("qut.prefilter", "off").toUpperCase(Locale.ROOT));
+        if (mode == Mode.OFF)
+            return null;
+        boolean reduced = "murphy10".equalsIgnoreCase(System.getProperty("qut.prefilter.alphabet", "full"));
+        return new SeedFilter(referenceGenes, matrix, reduced ? MURPHY10 : FULL,
+                Integer.getInteger("qut.prefilter.word", reduced ? 4 : 3),
+                Integer.getInteger("qut.prefilter.threshold", 11),
+                Integer.getInteger("qut.prefilter.window", 40),
+                mode);
+    }
+
+    /**
+     * Marks the references a peptide has seed hits with.
+     *
+     * @param peptide the peptide to look up
+     * @param candidates receives true at the index of every reference worth aligning
+     */
+    public void Candidates(PeptideSequence peptide, boolean[] candidates)
+    {
+        Arrays.fill(candidates, 0, references, false);
+        byte[] residues = peptide.bytes;
+        int[][] last = lastHits.get();
+        if (window > 0)
+        {
+            for (int r = 0; r < references; r++)
+            {
+                int diagonals = referenceLengths[r] + residues.length;
+                if (last[r].length < diagonals)
+                    last[r] = new int[diagonals];
+                Arrays.fill(last[r], 0, diagonals, -1);
+            }
+        }
+
+        int words = start.length - 1;
+        int word = 0;
+        int valid = 0; // residues of the current word that are standard amino acids
+        for (int i = 0; i < residues.length; i++)
+        {
+            int code = residues[i] < 0 ? -1 : CODES[residues[i]];
+            if (code < 0)
+            {
+                valid = 0;
+                continue;
+            }
+            word = (word * letters + letterOf[code]) % words;
+            if (++valid < k)
+                continue;
+
+            int p = i - k + 1;
+            for (int at = start[word]; at < start[word + 1]; at++)
+            {
+                int r = hitReferences[at];
+                if (candidates[r])
+                    continue;
+                if (window == 0)
+                {
+                    candidates[r] = true;
+                    continue;
+                }
+                int diagonal = p - hitPositions[at] + referenceLengths[r];
+                int previous = last[r][diagonal];
+                if (previous >= 0 && p - previous >= k && p - previous <= window)
+                    candidates[r] = true;
+                else if (previous < 0 || p - previous >= k)
+                    last[r][diagonal] = p;
+            }
+        }
+    }
+
+    private static boolean Encode(byte[] residues, int p, int[] word)
+    {
+        for (int i = 0; i < word.length; i++)
+        {
+            int c = residues[p + i];
+            if (c < 0 || CODES[c] < 0)
+                return false;
+            word[i] = CODES[c];
+        }
+        return true;
+    }
+
+    // Depth-first walk over neighbour words, pruned once the best possible remaining score misses the threshold
+    private static void Expand(float[][] scores, int letters, float[] remaining, int[] word, int threshold, int depth,
+                               float score, int neighbour, int reference, int position, List<int[]> neighbours,
+                               int[] counts)
+    {
+        if (depth == word.length)
+        {
+            neighbours.add(new int[] { neighbour, reference, position });
+            counts[neighbour]++;
+            return;
+        }
+        for (int c = 0; c < letters; c++)
+        {
+            float next = score + scores[word[depth]][c];
+            if (next + remaining[depth + 1] >= threshold)
+                Expand(scores, letters, remaining, word, threshold, depth + 1, next,
+                       neighbour * letters + c, reference, position, neighbours, counts);
+        }
+    }
+}
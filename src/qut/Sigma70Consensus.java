@@ -42,6 +42,18 @@ public class Sigma70Consensus
 	    }
     }
 
+    void addCounts(int predictions, int gapTotal, int[][] _35Count, int[][] _10Count)
+    {
+        this.predictions += predictions;
+        this.gapTotal += gapTotal;
+        for (int i=0; i<6; i++)
+            for (int j=0; j<4; j++)
+            {
+                this._35Count[i][j] += _35Count[i][j];
+                this._10Count[i][j] += _10Count[i][j];
+            }
+    }
+
     public void addMatch(Match match)
     {
         predictions += 1;
@@ -50,6 +62,16 @@ public class Sigma70Consensus
         add_35Sequence(match.getSubMatch(0).letters().getBytes());
     }    
     
+    public void addMatch(Sigma70Match match)
+    {
+        predictions += 1;
+        gapTotal += match.spacer;
+        for (int pos = 0; pos < match.minus10.length; pos++)
+            _10Count[pos][match.minus10[pos]]++;
+        for (int pos = 0; pos < match.minus35.length; pos++)
+            _35Count[pos][match.minus35[pos]]++;
+    }
+
     public void set(Match match)
     {
         predictions = 0;
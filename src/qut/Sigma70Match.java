@@ -0,0 +1,25 @@
+package qut;
+
+/**
+ * A promoter found by Sigma70Scanner: where its -35 box starts in the
+ * searched sequence, the length of its spacer, its score and the bases of
+ * both boxes, coded a=0 c=1 g=2 t=3 (anything else as 0, as
+ * Sigma70Consensus counts it).
+ */
+public class Sigma70Match
+{
+    public final int start;
+    public final int spacer;
+    public final double similarity;
+    public final byte[] minus35;
+    public final byte[] minus10;
+
+    public Sigma70Match(int start, int spacer, double similarity, byte[] minus35, byte[] minus10)
+    {
+        this.start = start;
+        this.spacer = spacer;
+        this.similarity = similarity;
+        this.minus35 = minus35;
+        this.minus10 = minus10;
+    }
+}
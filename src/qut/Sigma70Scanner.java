@@ -0,0 +1,240 @@
+package qut;
+
+import edu.au.jacobi.pattern.*;
+
+/**
+ * Finds the best sigma-70 promoter in a sequence, as
+ * BioPatterns.getBestMatch does with the series of Sigma70Definition (-35
+ * box, spacer, -10 box), but from flat tables compiled out of that series:
+ * both boxes are scored at every position in one pass, then each -35 box
+ * is combined with the -10 box after each spacer length.
+ *
+ * The scores are summed in the same order as jacobi's, so they are equal
+ * to the last bit, and the best match is the first one found with the
+ * highest score, scanning positions left to right and spacers short to
+ * long, as jacobi's search does. Like a jacobi Series, a scanner keeps
+ * scratch space, so each thread needs its own.
+ */
+public class Sigma70Scanner
+{
+    // Codes of the letters the PWMs know, in either case as jacobi reads
+    // them; anything else (n, IUPAC codes) scores the column minimum
+    private static final byte[] CODE = new byte[65536];
+    private static final int CHUNK = 1 << 16;
+
+    static
+    {
+        java.util.Arrays.fill(CODE, (byte) 4);
+        CODE['a'] = 0; CODE['c'] = 1; CODE['g'] = 2; CODE['t'] = 3;
+        CODE['A'] = 0; CODE['C'] = 1; CODE['G'] = 2; CODE['T'] = 3;
+    }
+
+    private final double[][] minus35; // [column][code], code 4 the column minimum
+    private final double[][] minus10;
+    private final double minus35Min, minus35Range, minus10Min, minus10Range;
+    private final double minus35Impact, spacerImpact, minus10Impact, impactSum;
+    private final int spacerMin;
+    private final double[] spacerScores;
+    private final double threshold;
+    private final double cutoff; // a little under the weighted score that reaches the threshold
+
+    private byte[] codes = new byte[0];
+    private double[] minus35Scores = new double[0];
+    private double[] minus10Scores = new double[0];
+
+    public Sigma70Scanner()
+    {
+        this(Sigma70Definition.getSeriesAll_Unanchored(0.7));
+    }
+
+    /**
+     * @param series a series of a PWM, a gap and a PWM, as Sigma70Definition makes
+     */
+    public Sigma70Scanner(Series series)
+    {
+        PWM pwm35 = (PWM) series.get(0);
+        Gap spacer = (Gap) series.get(1);
+        PWM pwm10 = (PWM) series.get(2);
+
+        minus35 = Compile(pwm35);
+        minus10 = Compile(pwm10);
+        double[] range = MinRange(minus35);
+        minus35Min = range[0];
+        minus35Range = range[1];
+        range = MinRange(minus10);
+        minus10Min = range[0];
+        minus10Range = range[1];
+
+        minus35Impact = pwm35.getImpact();
+        spacerImpact = spacer.getImpact();
+        minus10Impact = pwm10.getImpact();
+        impactSum = 0.0 + minus35Impact + spacerImpact + minus10Impact;
+
+        spacerMin = spacer.getMinLength();
+        spacerScores = new double[spacer.getMaxLength() - spacerMin + 1];
+        for (int i = 0; i < spacerScores.length; i++)
+            spacerScores[i] = spacer.getGapSim(i);
+        threshold = series.getThreshold();
+        cutoff = threshold * impactSum - Math.abs(threshold * impactSum) * 1e-9;
+    }
+
+    /**
+     * The best promoter in a sequence.
+     *
+     * @return the match, or null if no promoter reaches the threshold
+     */
+    public Sigma70Match BestMatch(CharSequence sequence)
+    {
+        int n = sequence.length();
+        Prepare(sequence, 0, n);
+
+        double best = -1.0;
+        int bestStart = -1, bestSpacer = 0;
+        for (int p = 0; p + MinimumLength() <= n; p++)
+            for (int extra = 0; extra < spacerScores.length && p + MinimumLength() + extra <= n; extra++)
+            {
+                double weighted = Weighted(p, extra);
+                if (weighted < cutoff)
+                    continue;
+                double similarity = weighted / impactSum;
+                if (similarity >= threshold && similarity > best)
+                {
+                    best = similarity;
+                    bestStart = p;
+                    bestSpacer = spacerMin + extra;
+                }
+            }
+        return bestStart < 0 ? null : Match(sequence, bestStart, bestSpacer, best);
+    }
+
+    /**
+     * Adds every promoter in a sequence that reaches the threshold to hits,
+     * in the order BestMatch meets them. The sequence is read once, a chunk
+     * at a time, so it can be a whole genome.
+     */
+    void Scan(CharSequence sequence, PromoterIndex.Hits hits)
+    {
+        int n = sequence.length();
+        int span = MinimumLength() + spacerScores.length - 1;
+        for (int from = 0; from < n; from += CHUNK)
+        {
+            int to = (int) Math.min(n, (long) from + CHUNK + span - 1);
+            Prepare(sequence, from, to);
+            for (int p = 0; p < CHUNK && p + MinimumLength() <= to - from; p++)
+                for (int extra = 0; extra < spacerScores.length && p + MinimumLength() + extra <= to - from; extra++)
+                {
+                    double weighted = Weighted(p, extra);
+                    if (weighted < cutoff)
+                        continue;
+                    double similarity = weighted / impactSum;
+                    if (similarity >= threshold)
+                        hits.Add(from + p, spacerMin + extra, similarity);
+                }
+        }
+    }
+
+    /**
+     * The match of the promoter at start in a sequence, with the given spacer.
+     */
+    public Sigma70Match Match(CharSequence sequence, int start, int spacer, double similarity)
+    {
+        int box35 = minus35.length, box10 = minus10.length;
+        byte[] letters35 = new byte[box35];
+        byte[] letters10 = new byte[box10];
+        for (int i = 0; i < box35; i++)
+            letters35[i] = (byte) (CODE[sequence.charAt(start + i)] & 3);
+        for (int i = 0; i < box10; i++)
+            letters10[i] = (byte) (CODE[sequence.charAt(start + box35 + spacer + i)] & 3);
+        return new Sigma70Match(start, spacer, similarity, letters35, letters10);
+    }
+
+    /**
+     * Length of the shortest promoter: both boxes and the shortest spacer.
+     */
+    public int MinimumLength()
+    {
+        return minus35.length + spacerMin + minus10.length;
+    }
+
+    /**
+     * Length of a promoter with the given spacer.
+     */
+    public int Length(int spacer)
+    {
+        return minus35.length + spacer + minus10.length;
+    }
+
+    // Codes and box scores of the bases from..to, from the start of the scratch arrays
+    private void Prepare(CharSequence sequence, int from, int to)
+    {
+        int n = to - from;
+        if (codes.length < n)
+        {
+            codes = new byte[n];
+            minus35Scores = new double[n];
+            minus10Scores = new double[n];
+        }
+        if (sequence instanceof NucleotideView)
+        {
+            ((NucleotideView) sequence).Bytes(from, to, codes);
+            for (int i = 0; i < n; i++)
+                codes[i] = CODE[codes[i] & 0xFF];
+        }
+        else
+            for (int i = 0; i < n; i++)
+                codes[i] = CODE[sequence.charAt(from + i)];
+        for (int p = 0; p + minus35.length <= n; p++)
+            minus35Scores[p] = Score(minus35, p, minus35Min, minus35Range);
+        for (int p = 0; p + minus10.length <= n; p++)
+            minus10Scores[p] = Score(minus10, p, minus10Min, minus10Range);
+    }
+
+    // Weighted score of the -35 box at p with a spacer extra bases longer than the
+    // shortest, summed as jacobi does; the similarity is this over impactSum
+    private double Weighted(int p, int extra)
+    {
+        int q = p + minus35.length + spacerMin + extra;
+        return 0.0 + minus35Scores[p] * minus35Impact + spacerScores[extra] * spacerImpact
+                + minus10Scores[q] * minus10Impact;
+    }
+
+    private double Score(double[][] pwm, int position, double min, double range)
+    {
+        double score = 0;
+        for (int i = 0; i < pwm.length; i++)
+            score += pwm[i][codes[position + i]];
+        return (score - min) / range;
+    }
+
+    private static double[][] Compile(PWM pwm)
+    {
+        double[][] table = new double[pwm.length()][5];
+        char[] letters = { 'a', 'c', 'g', 't' };
+        for (int i = 0; i < pwm.length(); i++)
+        {
+            table[i][4] = Double.POSITIVE_INFINITY;
+            for (int code = 0; code < 4; code++)
+            {
+                table[i][code] = pwm.get(letters[code], i);
+                table[i][4] = Math.min(table[i][4], table[i][code]);
+            }
+        }
+        return table;
+    }
+
+    // The lowest score and the range of scores of a PWM, summed as PWM does
+    private static double[] MinRange(double[][] table)
+    {
+        double min = 0, max = 0;
+        for (double[] column : table)
+        {
+            double highest = Double.NEGATIVE_INFINITY;
+            for (int code = 0; code < 4; code++)
+                highest = Math.max(highest, column[code]);
+            max += highest;
+            min += column[4];
+        }
+        double range = max - min;
+        return new double[] { min, range == 0 ? 1 : range };
+    }
+}
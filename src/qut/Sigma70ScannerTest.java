@@ -0,0 +1,91 @@
+package qut;
+
+import edu.au.jacobi.pattern.Match;
+import edu.au.jacobi.pattern.Series;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class Sigma70ScannerTest {
+    @Test
+    void MatchesJacobiSearch() throws IOException {
+        List<CharSequence> regions = new ArrayList<>();
+        Random random = new Random(70);
+        String bases = "acgtacgtacgtacgtacgtacgtnACGTry-";
+        for (int trial = 0; trial < 2000; trial++) {
+            StringBuilder region = new StringBuilder();
+            int length = random.nextInt(trial < 200 ? 40 : 300);
+            for (int i = 0; i < length; i++)
+                region.append(bases.charAt(random.nextInt(trial % 2 == 0 ? 4 : bases.length())));
+            regions.add(region);
+        }
+        // and the upstream regions of the reference genomes, when they are here
+        File ecoli = new File("./Ecoli");
+        if (ecoli.isDirectory())
+            for (File file : ecoli.listFiles()) {
+                GenbankRecord record = GenbankParser.Parse(file.getPath());
+                for (Gene gene : record.genes)
+                    regions.add(record.nucleotides.UpstreamView(gene));
+            }
+
+        Series series = Sigma70Definition.getSeriesAll_Unanchored(0.7);
+        Sigma70Scanner scanner = new Sigma70Scanner();
+        for (CharSequence region : regions) {
+            Match expected = BioPatterns.getBestMatch(series, region);
+            Sigma70Match actual = scanner.BestMatch(region);
+            if (expected == null) {
+                assertNull(actual, region.toString());
+                continue;
+            }
+            assertEquals(expected.similarity(), actual.similarity, region.toString());
+            assertEquals(expected.getSubMatch(0).start() - 1, actual.start, region.toString());
+            assertEquals(expected.getSubMatch(1).calcLength(), actual.spacer, region.toString());
+            assertArrayEquals(codes(expected.getSubMatch(0).letters()), actual.minus35);
+            assertArrayEquals(codes(expected.getSubMatch(2).letters()), actual.minus10);
+        }
+    }
+
+    @Test
+    void IndexFindsWindowBest() {
+        Random random = new Random(16);
+        byte[] bases = new byte[200000];
+        for (int i = 0; i < bases.length; i++)
+            bases[i] = (byte) (random.nextInt(500) == 0 ? 'n' : "acgt".charAt(random.nextInt(4)));
+        NucleotideSequence genome = NucleotideSequence.Pack(bases);
+        PromoterIndex index = new PromoterIndex(genome);
+        Sigma70Scanner scanner = new Sigma70Scanner();
+
+        for (int trial = 0; trial < 2000; trial++) {
+            int from = random.nextInt(bases.length);
+            int to = Math.min(bases.length, from + random.nextInt(trial % 10 == 0 ? 5000 : 300));
+            NucleotideView window = genome.View(from, to, trial % 2 == 0 ? 1 : -1);
+            Sigma70Match expected = scanner.BestMatch(window);
+            Sigma70Match actual = index.BestMatch(window);
+            if (expected == null) {
+                assertNull(actual);
+                continue;
+            }
+            assertEquals(expected.similarity, actual.similarity);
+            assertEquals(expected.start, actual.start);
+            assertEquals(expected.spacer, actual.spacer);
+            assertArrayEquals(expected.minus35, actual.minus35);
+            assertArrayEquals(expected.minus10, actual.minus10);
+        }
+    }
+
+    // Letters as Sigma70Consensus counts them
+    private static byte[] codes(String letters) {
+        byte[] codes = new byte[letters.length()];
+        for (int i = 0; i < codes.length; i++)
+            codes[i] = (byte) Math.max(0, "ACGT".indexOf(Character.toUpperCase(letters.charAt(i))));
+        return codes;
+    }
+}
@@ -0,0 +1,110 @@
+package qut;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Structured concurrency on virtual threads: a virtual thread per file
+ * reads and parses it, and forks a virtual thread per block of genes,
+ * which runs the block on a fixed pool of platform threads, so alignment
+ * never takes more cores than the pool has while reading goes on beside
+ * it. At most as many files as the pool has threads are open at once, so
+ * the records waiting on the pool stay bounded however many files there
+ * are. Each file's blocks and all the files are joined in
+ * StructuredTaskScopes: the first failure cancels everything else.
+ *
+ * StructuredTaskScope is a preview API in Java 21, so this class, and only
+ * this class, needs --enable-preview; ExecutionStrategy reaches it through
+ * Create, so the other strategies load without the flag.
+ */
+public class StructuredStrategy extends ExecutionStrategy
+{
+    private final int threads;
+
+    private StructuredStrategy(int threads)
+    {
+        super("structured(" + threads + ")");
+        this.threads = threads;
+    }
+
+    /**
+     * @param threads platform threads aligning at once
+     */
+    public static ExecutionStrategy Create(int threads)
+    {
+        return new StructuredStrategy(threads);
+    }
+
+    @Override
+    public void Execute(PromoterPipeline pipeline, List<String> files) throws IOException, InterruptedException
+    {
+        java.util.concurrent.ExecutorService alignment = Executors.newFixedThreadPool(threads);
+        Semaphore open = new Semaphore(threads);
+        try (StructuredTaskScope.ShutdownOnFailure scope = new StructuredTaskScope.ShutdownOnFailure())
+        {
+            for (String filename : files)
+                scope.fork(() -> {
+                    open.acquire();
+                    try {
+                        ProcessFile(pipeline, filename, alignment);
+                    } finally {
+                        open.release();
+                    }
+                    return null;
+                });
+            scope.join().throwIfFailed(StructuredStrategy::AsIOException);
+        }
+        finally
+        {
+            alignment.shutdownNow();
+        }
+    }
+
+    // Reads a file on this virtual thread, with a virtual thread waiting on each block it hands to the pool
+    private static void ProcessFile(PromoterPipeline pipeline, String filename, java.util.concurrent.ExecutorService alignment)
+            throws IOException, InterruptedException
+    {
+        System.out.println(filename);
+        try (StructuredTaskScope.ShutdownOnFailure scope = new StructuredTaskScope.ShutdownOnFailure();
+             GenbankReader reader = new GenbankReader(filename))
+        {
+            for (GenbankRecord next = pipeline.Next(reader); next != null; next = pipeline.Next(reader))
+            {
+                GenbankRecord record = next;
+                for (int from = 0; from < record.genes.size(); from += PromoterPipeline.BLOCK)
+                {
+                    int start = from, end = Math.min(record.genes.size(), from + PromoterPipeline.BLOCK);
+                    scope.fork(() -> Align(alignment, () -> pipeline.ProcessGenes(record, start, end)));
+                }
+            }
+            scope.join().throwIfFailed(StructuredStrategy::AsIOException);
+        }
+    }
+
+    // Runs a task on the pool and waits for it, cancelling it if this thread is interrupted
+    private static Void Align(java.util.concurrent.ExecutorService alignment, Runnable task) throws Exception
+    {
+        Future<?> future = alignment.submit(task);
+        try {
+            future.get();
+            return null;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    private static IOException AsIOException(Throwable failure)
+    {
+        if (failure instanceof IOException)
+            return (IOException) failure;
+        if (failure instanceof RuntimeException)
+            throw (RuntimeException) failure;
+        if (failure instanceof Error)
+            throw (Error) failure;
+        return new IOException(failure);
+    }
+}